@@ -0,0 +1,143 @@
+package com.chesapeaketechnology.bufmonkey.generator.benchmarks;
+
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cold start of the plugin file built by ":generator:prependShellStub", which includes
+ * JVM startup, class loading and the first generation. A number of requests is handled either by
+ * starting a new JVM per request, which is what protoc does, or by a single JVM in batch mode. Both
+ * run with and without the class data sharing archive next to the plugin.
+ *
+ * @since 0.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class ColdStartBenchmark
+{
+    /**
+     * Path of the plugin file, set by the build to the generator artifact
+     */
+    @Param({""})
+    public String plugin;
+
+    /**
+     * Whether the JVM is started with the class data sharing archive of the plugin
+     */
+    @Param({"false", "true"})
+    public boolean sharedArchive;
+
+    /**
+     * Number of requests handled per invocation
+     */
+    @Param({"10"})
+    public int requests;
+
+    private byte[] requestBytes;
+
+    private byte[] batchBytes;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        if (plugin.isEmpty() || !new File(plugin).isFile())
+        {
+            throw new IllegalStateException("Plugin not found at '" + plugin
+                    + "', build it with ./gradlew :generator:prependShellStub");
+        }
+        if (sharedArchive && !new File(plugin + ".jsa").isFile())
+        {
+            throw new IllegalStateException("Class data sharing archive not found next to " + plugin);
+        }
+
+        CodeGeneratorRequest request = SyntheticRequests.recorded("");
+        requestBytes = request.toByteArray();
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (int i = 0; i < requests; i++)
+        {
+            request.writeDelimitedTo(batch);
+        }
+        batchBytes = batch.toByteArray();
+    }
+
+    @Benchmark
+    public long processPerRequest() throws IOException, InterruptedException
+    {
+        long outputBytes = 0;
+        for (int i = 0; i < requests; i++)
+        {
+            outputBytes += run(requestBytes, false);
+        }
+        return outputBytes;
+    }
+
+    @Benchmark
+    public long batch() throws IOException, InterruptedException
+    {
+        return run(batchBytes, true);
+    }
+
+    /**
+     * Starts the plugin in a new JVM, writes the input to it and reads its complete output
+     *
+     * @return number of bytes the plugin wrote
+     */
+    private long run(byte[] input, boolean batch) throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (sharedArchive)
+        {
+            command.add("-XX:SharedArchiveFile=" + plugin + ".jsa");
+            command.add("-Xshare:auto");
+        }
+        command.add("-jar");
+        command.add(plugin);
+        if (batch)
+        {
+            command.add("--batch");
+        }
+
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try (OutputStream stdin = process.getOutputStream())
+        {
+            stdin.write(input);
+        }
+        long outputBytes = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream stdout = process.getInputStream())
+        {
+            int read;
+            while ((read = stdout.read(buffer)) != -1)
+            {
+                outputBytes += read;
+            }
+        }
+        if (process.waitFor() != 0)
+        {
+            throw new IllegalStateException("Plugin exited with " + process.exitValue());
+        }
+        return outputBytes;
+    }
+}
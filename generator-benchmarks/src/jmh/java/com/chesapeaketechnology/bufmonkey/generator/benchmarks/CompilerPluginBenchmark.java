@@ -0,0 +1,46 @@
+package com.chesapeaketechnology.bufmonkey.generator.benchmarks;
+
+import com.chesapeaketechnology.bufmonkey.generator.CompilerPlugin;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the end to end generation of a complete {@link CodeGeneratorRequest} for the synthetic
+ * workloads, with the interpreted and the specialized decode functions and with a varying number
+ * of generator threads.
+ *
+ * @since 0.2.0
+ */
+@State(Scope.Benchmark)
+public class CompilerPluginBenchmark
+{
+    @Param({"wide", "deep", "manyFiles"})
+    public String workload;
+
+    @Param({"", "specializedDecode"})
+    public String parameters;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private CodeGeneratorRequest request;
+
+    @Setup
+    public void setup()
+    {
+        String threadsParameter = "threads=" + threads;
+        request = SyntheticRequests.forWorkload(workload,
+                parameters.isEmpty() ? threadsParameter : parameters + "," + threadsParameter);
+    }
+
+    @Benchmark
+    public CodeGeneratorResponse handleRequest()
+    {
+        return CompilerPlugin.handleRequest(request);
+    }
+}
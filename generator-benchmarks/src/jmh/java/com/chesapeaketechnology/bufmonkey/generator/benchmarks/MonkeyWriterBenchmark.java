@@ -0,0 +1,108 @@
+package com.chesapeaketechnology.bufmonkey.generator.benchmarks;
+
+import com.chesapeaketechnology.bufmonkey.generator.MonkeyWriter;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Measures the individual {@link MonkeyWriter} functions for a message with the provided number of
+ * fields. The writer is flushed and reused between invocations, so the measured allocations are the
+ * ones of the code generation itself and not of growing a new builder.
+ *
+ * @since 0.2.0
+ */
+@State(Scope.Thread)
+public class MonkeyWriterBenchmark
+{
+    @Param({"16", "500"})
+    public int fieldCount;
+
+    private List<FieldDescriptorProto> fields;
+
+    private List<EnumValueDescriptorProto> enumValues;
+
+    private MonkeyWriter monkeyWriter;
+
+    @Setup
+    public void setup()
+    {
+        fields = SyntheticRequests.newWideMessage("Wide", fieldCount).build().getFieldList();
+        enumValues = SyntheticRequests.wide(1, null).getProtoFile(0).getEnumType(0).getValueList();
+        monkeyWriter = new MonkeyWriter();
+    }
+
+    @Benchmark
+    public MonkeyWriter writeFields()
+    {
+        monkeyWriter.flush();
+        for (FieldDescriptorProto field : fields)
+        {
+            monkeyWriter.writeField(field.getName(), "public");
+        }
+        return monkeyWriter;
+    }
+
+    @Benchmark
+    public MonkeyWriter writeDescriptor()
+    {
+        monkeyWriter.flush();
+        monkeyWriter.writeDescriptor(fields);
+        return monkeyWriter;
+    }
+
+    @Benchmark
+    public MonkeyWriter writePrintFunction()
+    {
+        monkeyWriter.flush();
+        monkeyWriter.writePrintFunction("Wide", fields, false);
+        return monkeyWriter;
+    }
+
+    @Benchmark
+    public MonkeyWriter writeSetValueFunction()
+    {
+        monkeyWriter.flush();
+        monkeyWriter.writeSetValueFunction(fields);
+        return monkeyWriter;
+    }
+
+    @Benchmark
+    public MonkeyWriter writeDecodeFunction()
+    {
+        monkeyWriter.flush();
+        monkeyWriter.writeDecodeFunction(fields);
+        return monkeyWriter;
+    }
+
+    @Benchmark
+    public MonkeyWriter writeEncodeFunctions()
+    {
+        monkeyWriter.flush();
+        monkeyWriter.writeComputeSizeFunction(fields, true, false);
+        monkeyWriter.writeWriteToFunction(fields, true);
+        return monkeyWriter;
+    }
+
+    @Benchmark
+    public MonkeyWriter writeEnum()
+    {
+        monkeyWriter.flush();
+        monkeyWriter.writeModuleName("Kind");
+        monkeyWriter.writeEnum(enumValues);
+        monkeyWriter.writeClosingBracket();
+        return monkeyWriter;
+    }
+
+    @Benchmark
+    public String toStringResult()
+    {
+        return writeDescriptor().toString();
+    }
+}
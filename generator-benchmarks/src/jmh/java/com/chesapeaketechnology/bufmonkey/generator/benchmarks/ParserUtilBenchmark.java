@@ -0,0 +1,28 @@
+package com.chesapeaketechnology.bufmonkey.generator.benchmarks;
+
+import com.chesapeaketechnology.bufmonkey.generator.parser.ParserUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * Measures the parsing of the generator parameter string that protoc passes in front of the output
+ * directory
+ *
+ * @since 0.2.0
+ */
+@State(Scope.Benchmark)
+public class ParserUtilBenchmark
+{
+    @Param({"", "specializedDecode", "rootModule=MyBarrel,specializedDecode,threads=4"})
+    public String parameter;
+
+    @Benchmark
+    public Map<String, String> parseGeneratorParameters()
+    {
+        return ParserUtil.parseGeneratorParameters(parameter);
+    }
+}
@@ -0,0 +1,44 @@
+package com.chesapeaketechnology.bufmonkey.generator.benchmarks;
+
+import com.chesapeaketechnology.bufmonkey.generator.CompilerPlugin;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Replays requests recorded with the ParserPlugin, e.g.
+ * "protoc --plugin=protoc-gen-parser=... --parser_out=request_file=my-request.pb:./out my.proto".
+ * The request is parsed from the recorded bytes on every invocation, just like protoc hands it to
+ * the plugin. Without a requestFile parameter the bundled recording of Test1.proto is replayed.
+ *
+ * @since 0.2.0
+ */
+@State(Scope.Benchmark)
+public class RecordedRequestBenchmark
+{
+    /**
+     * Path of the recorded request, set with -PrequestFiles=first.pb,second.pb
+     */
+    @Param({""})
+    public String requestFile;
+
+    private byte[] requestBytes;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        requestBytes = SyntheticRequests.recorded(requestFile).toByteArray();
+    }
+
+    @Benchmark
+    public CodeGeneratorResponse handleRequest() throws IOException
+    {
+        return CompilerPlugin.handleRequest(CodeGeneratorRequest.parseFrom(requestBytes));
+    }
+}
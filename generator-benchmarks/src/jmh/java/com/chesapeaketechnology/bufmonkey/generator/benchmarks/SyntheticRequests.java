@@ -0,0 +1,252 @@
+package com.chesapeaketechnology.bufmonkey.generator.benchmarks;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Builds the {@link CodeGeneratorRequest}s used as benchmark workloads. Synthetic requests are built
+ * in memory so they do not depend on a protoc executable, recorded requests are read from files
+ * written by the ParserPlugin (request_file parameter).
+ *
+ * @since 0.2.0
+ */
+public final class SyntheticRequests
+{
+    /**
+     * Package of every synthetic file
+     */
+    static final String PACKAGE = "bench";
+
+    /**
+     * Name of the recorded request bundled with the benchmarks
+     */
+    static final String BUNDLED_REQUEST = "test1-request.pb";
+
+    /**
+     * Field types that are cycled through by synthetic messages, groups are not supported
+     */
+    private static final FieldDescriptorProto.Type[] SCALAR_TYPES = {
+            FieldDescriptorProto.Type.TYPE_DOUBLE,
+            FieldDescriptorProto.Type.TYPE_FLOAT,
+            FieldDescriptorProto.Type.TYPE_INT64,
+            FieldDescriptorProto.Type.TYPE_UINT64,
+            FieldDescriptorProto.Type.TYPE_INT32,
+            FieldDescriptorProto.Type.TYPE_FIXED64,
+            FieldDescriptorProto.Type.TYPE_FIXED32,
+            FieldDescriptorProto.Type.TYPE_BOOL,
+            FieldDescriptorProto.Type.TYPE_STRING,
+            FieldDescriptorProto.Type.TYPE_BYTES,
+            FieldDescriptorProto.Type.TYPE_UINT32,
+            FieldDescriptorProto.Type.TYPE_ENUM,
+            FieldDescriptorProto.Type.TYPE_SFIXED32,
+            FieldDescriptorProto.Type.TYPE_SFIXED64,
+            FieldDescriptorProto.Type.TYPE_SINT32,
+            FieldDescriptorProto.Type.TYPE_SINT64
+    };
+
+    private SyntheticRequests()
+    {
+    }
+
+    /**
+     * Builds the request for a named workload
+     *
+     * @param workload   one of "wide", "deep" or "manyFiles"
+     * @param parameters String generator parameters
+     * @return {@link CodeGeneratorRequest}
+     */
+    public static CodeGeneratorRequest forWorkload(String workload, String parameters)
+    {
+        switch (workload)
+        {
+            case "wide":
+                return wide(500, parameters);
+            case "deep":
+                return deep(64, parameters);
+            case "manyFiles":
+                return manyFiles(2000, parameters);
+            default:
+                throw new IllegalArgumentException("Unknown workload: " + workload);
+        }
+    }
+
+    /**
+     * Builds a request with a single file declaring one message with many fields of every type
+     *
+     * @param fieldCount int number of fields
+     * @param parameters String generator parameters
+     * @return {@link CodeGeneratorRequest}
+     */
+    public static CodeGeneratorRequest wide(int fieldCount, String parameters)
+    {
+        FileDescriptorProto.Builder file = newFile("wide.proto");
+        file.addEnumType(newEnum("Kind", 8));
+        file.addMessageType(DescriptorProto.newBuilder().setName("Child")
+                .addField(newField("value", 1, FieldDescriptorProto.Type.TYPE_INT32, false)));
+        file.addMessageType(newWideMessage("Wide", fieldCount));
+        return newRequest(parameters).addProtoFile(file).addFileToGenerate(file.getName()).build();
+    }
+
+    /**
+     * Builds a request with a chain of messages where every level embeds the next one and declares
+     * its own nested enum
+     *
+     * @param depth      int number of levels
+     * @param parameters String generator parameters
+     * @return {@link CodeGeneratorRequest}
+     */
+    public static CodeGeneratorRequest deep(int depth, String parameters)
+    {
+        FileDescriptorProto.Builder file = newFile("deep.proto");
+        for (int level = 0; level < depth; level++)
+        {
+            DescriptorProto.Builder message = DescriptorProto.newBuilder()
+                    .setName("Level" + level)
+                    .addEnumType(newEnum("State" + level, 4))
+                    .addField(newField("id", 1, FieldDescriptorProto.Type.TYPE_INT32, false))
+                    .addField(newField("name", 2, FieldDescriptorProto.Type.TYPE_STRING, false))
+                    .addField(newField("samples", 3, FieldDescriptorProto.Type.TYPE_SINT32, true))
+                    .addField(newField("state", 4, FieldDescriptorProto.Type.TYPE_ENUM, false)
+                            .setTypeName("." + PACKAGE + ".Level" + level + ".State" + level));
+            if (level < depth - 1)
+            {
+                String child = "." + PACKAGE + ".Level" + (level + 1);
+                message.addField(newField("child", 5, FieldDescriptorProto.Type.TYPE_MESSAGE, false)
+                        .setTypeName(child));
+                message.addField(newField("children", 6, FieldDescriptorProto.Type.TYPE_MESSAGE, true)
+                        .setTypeName(child));
+            }
+            file.addMessageType(message);
+        }
+        return newRequest(parameters).addProtoFile(file).addFileToGenerate(file.getName()).build();
+    }
+
+    /**
+     * Builds a request with many small files that each declare two messages and an enum. The first
+     * file also declares the types the messages refer to.
+     *
+     * @param fileCount  int number of files
+     * @param parameters String generator parameters
+     * @return {@link CodeGeneratorRequest}
+     */
+    public static CodeGeneratorRequest manyFiles(int fileCount, String parameters)
+    {
+        CodeGeneratorRequest.Builder request = newRequest(parameters);
+        for (int i = 0; i < fileCount; i++)
+        {
+            FileDescriptorProto.Builder file = newFile("file" + i + ".proto");
+            if (i == 0)
+            {
+                file.addEnumType(newEnum("Kind", 8));
+                file.addMessageType(DescriptorProto.newBuilder().setName("Child")
+                        .addField(newField("value", 1, FieldDescriptorProto.Type.TYPE_INT32, false)));
+            }
+            file.addEnumType(newEnum("Status" + i, 3));
+            file.addMessageType(newWideMessage("Request" + i, 8));
+            file.addMessageType(newWideMessage("Response" + i, 20));
+            request.addProtoFile(file).addFileToGenerate(file.getName());
+        }
+        return request.build();
+    }
+
+    /**
+     * Reads a request recorded by the ParserPlugin. An empty path reads the request bundled with the
+     * benchmarks, which was recorded from Test1.proto.
+     *
+     * @param path String path of the recorded request file
+     * @return {@link CodeGeneratorRequest}
+     * @throws IOException if the file can not be read
+     */
+    public static CodeGeneratorRequest recorded(String path) throws IOException
+    {
+        if (path == null || path.isEmpty())
+        {
+            try (InputStream input = SyntheticRequests.class.getResourceAsStream("/requests/" + BUNDLED_REQUEST))
+            {
+                return CodeGeneratorRequest.parseFrom(input);
+            }
+        }
+        return CodeGeneratorRequest.parseFrom(Files.readAllBytes(Paths.get(path)));
+    }
+
+    /**
+     * Builds a message that uses every supported field type, both singular and repeated. Enum fields
+     * refer to the file level "Kind" enum and message fields to the "Child" message.
+     *
+     * @param name       String message name
+     * @param fieldCount int number of fields
+     * @return message builder
+     */
+    public static DescriptorProto.Builder newWideMessage(String name, int fieldCount)
+    {
+        DescriptorProto.Builder message = DescriptorProto.newBuilder().setName(name);
+        for (int i = 0; i < fieldCount; i++)
+        {
+            int number = i + 1;
+            boolean repeated = (i / SCALAR_TYPES.length) % 2 == 1;
+            FieldDescriptorProto.Builder field;
+            if (i % 17 == 16)
+            {
+                field = newField("field" + number, number, FieldDescriptorProto.Type.TYPE_MESSAGE, repeated)
+                        .setTypeName("." + PACKAGE + ".Child");
+            } else
+            {
+                FieldDescriptorProto.Type type = SCALAR_TYPES[i % SCALAR_TYPES.length];
+                field = newField("field" + number, number, type, repeated);
+                if (type == FieldDescriptorProto.Type.TYPE_ENUM)
+                {
+                    field.setTypeName("." + PACKAGE + ".Kind");
+                }
+            }
+            message.addField(field);
+        }
+        return message;
+    }
+
+    private static CodeGeneratorRequest.Builder newRequest(String parameters)
+    {
+        CodeGeneratorRequest.Builder request = CodeGeneratorRequest.newBuilder();
+        if (parameters != null && !parameters.isEmpty())
+        {
+            request.setParameter(parameters);
+        }
+        return request;
+    }
+
+    private static FileDescriptorProto.Builder newFile(String name)
+    {
+        return FileDescriptorProto.newBuilder()
+                .setName(name)
+                .setPackage(PACKAGE)
+                .setSyntax("proto3");
+    }
+
+    private static EnumDescriptorProto.Builder newEnum(String name, int valueCount)
+    {
+        EnumDescriptorProto.Builder anEnum = EnumDescriptorProto.newBuilder().setName(name);
+        for (int i = 0; i < valueCount; i++)
+        {
+            anEnum.addValue(EnumValueDescriptorProto.newBuilder().setName(name.toUpperCase() + "_" + i).setNumber(i));
+        }
+        return anEnum;
+    }
+
+    private static FieldDescriptorProto.Builder newField(String name, int number, FieldDescriptorProto.Type type,
+                                                         boolean repeated)
+    {
+        return FieldDescriptorProto.newBuilder()
+                .setName(name)
+                .setNumber(number)
+                .setType(type)
+                .setLabel(repeated ? FieldDescriptorProto.Label.LABEL_REPEATED : FieldDescriptorProto.Label.LABEL_OPTIONAL);
+    }
+}
@@ -0,0 +1,102 @@
+package com.chesapeaketechnology.bufmonkey.generator;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Report of the estimated code size of every generated message class with the size and the speed
+ * profile (see {@link GeneratorOptions#getProfile()}). Every message is generated with both profiles
+ * and measured by its number of Monkey C statements, which the compiled code size grows with, and by
+ * its source size. Lines that only close a block and comments are not counted as statements.
+ *
+ * @since 0.2.0
+ */
+public final class CodeSizeReport
+{
+    /**
+     * Name of the report file in the output directory
+     */
+    static final String FILE_NAME = "bufmonkey-code-size.txt";
+
+    private static final String ROW_FORMAT = "%-40s %16s %12s %16s %12s%n";
+
+    private CodeSizeReport()
+    {
+    }
+
+    /**
+     * Creates the report for every message of the provided files
+     *
+     * @param files   List of {@link FileDescriptorProto} of the request
+     * @param options {@link GeneratorOptions} of the request
+     * @return report file
+     */
+    public static CodeGeneratorResponse.File create(List<FileDescriptorProto> files, GeneratorOptions options)
+    {
+        GeneratorOptions sizeOptions = options.withProfile(GeneratorOptions.PROFILE_SIZE);
+        GeneratorOptions speedOptions = options.withProfile(GeneratorOptions.PROFILE_SPEED);
+
+        List<String> rows = new ArrayList<>();
+        int[] totals = new int[4];
+        for (FileDescriptorProto file : files)
+        {
+            for (DescriptorProto message : file.getMessageTypeList())
+            {
+                String name = file.getPackage().isEmpty() ? message.getName() : file.getPackage() + "." + message.getName();
+                String size = CompilerPlugin.generateMessage(file, message, sizeOptions).getContent();
+                String speed = CompilerPlugin.generateMessage(file, message, speedOptions).getContent();
+                int[] row = {countStatements(size), countBytes(size), countStatements(speed), countBytes(speed)};
+                for (int i = 0; i < row.length; i++)
+                {
+                    totals[i] += row[i];
+                }
+                rows.add(String.format(ROW_FORMAT, name, row[0], row[1], row[2], row[3]));
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("# Estimated code size of the generated message classes per profile").append(System.lineSeparator());
+        report.append("# Current profile: ").append(options.getProfile() == null ? "none" : options.getProfile())
+                .append(System.lineSeparator());
+        report.append(String.format(ROW_FORMAT, "message", "size statements", "size bytes", "speed statements", "speed bytes"));
+        rows.forEach(report::append);
+        report.append(String.format(ROW_FORMAT, "total", totals[0], totals[1], totals[2], totals[3]));
+
+        return CodeGeneratorResponse.File.newBuilder()
+                .setName(FILE_NAME)
+                .setContent(report.toString())
+                .build();
+    }
+
+    /**
+     * Counts the Monkey C statements of generated code, which are the lines that hold more than a
+     * closing bracket or a comment
+     *
+     * @param code String generated code
+     * @return number of statements
+     */
+    static int countStatements(String code)
+    {
+        int statements = 0;
+        for (String line : code.split("\\R"))
+        {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.equals("}") && !trimmed.equals("};")
+                    && !trimmed.startsWith("/") && !trimmed.startsWith("*"))
+            {
+                statements++;
+            }
+        }
+        return statements;
+    }
+
+    static int countBytes(String code)
+    {
+        return code.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -7,8 +7,19 @@ import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
-import java.util.*;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Protoc plugin that gets called by the protoc executable. The communication happens
@@ -18,26 +29,84 @@ import java.util.*;
  */
 public class CompilerPlugin
 {
+    /**
+     * Argument that switches the plugin to batch mode, see {@link #handleBatch(InputStream, OutputStream)}
+     */
+    static final String BATCH_ARGUMENT = "--batch";
 
     /**
-     * Allows for configuration of the root module for files to be
-     * generated under. This is useful for code generation usage
-     * in monkey barrels as barrels require all class files to be located
-     * under the barrel module defined in the manifest.xml file.
+     * Name of the package bundle of proto files without a package
      */
-    private static String ROOT_MODULE = "rootModule";
+    static final String DEFAULT_BUNDLE = "default";
+
+    private static final String PROTO_EXTENSION = ".proto";
+
+    static final String MONKEY_C_EXTENSION = ".mc";
 
     /**
-     * The protoc-gen-plugin communicates via proto messages on System.in and System.out
+     * The protoc-gen-plugin communicates via proto messages on System.in and System.out. With the
+     * {@link #BATCH_ARGUMENT} it handles a stream of requests instead of a single one.
      *
      * @param args
      * @throws IOException
      */
     public static void main(String[] args) throws IOException
     {
+        if (args.length > 0 && BATCH_ARGUMENT.equals(args[0]))
+        {
+            handleBatch(System.in, System.out);
+            return;
+        }
         handleRequest(System.in).writeTo(System.out);
     }
 
+    /**
+     * Handles many requests in one process, so that a build which generates several modules pays the
+     * JVM startup only once. The input holds the requests and the output receives a response per
+     * request, each one prefixed with its length as a varint (the framing of writeDelimitedTo). A
+     * request that fails is answered with an error response. A stream that can not be parsed is
+     * answered with a final error response.
+     *
+     * @param input  InputStream to read the length prefixed requests from
+     * @param output OutputStream to write the length prefixed responses to
+     * @return number of handled requests
+     * @throws IOException if a response can not be written
+     */
+    static int handleBatch(InputStream input, OutputStream output) throws IOException
+    {
+        int count = 0;
+        while (true)
+        {
+            CodeGeneratorRequest request;
+            try
+            {
+                request = CodeGeneratorRequest.parseDelimitedFrom(input);
+            } catch (IOException ex)
+            {
+                ParserUtil.asErrorWithStackTrace(ex).writeDelimitedTo(output);
+                output.flush();
+                return count;
+            }
+            if (request == null)
+            {
+                return count;
+            }
+
+            CodeGeneratorResponse response;
+            try
+            {
+                response = handleRequest(request);
+            } catch (Exception ex)
+            {
+                response = ParserUtil.asErrorWithStackTrace(ex);
+            }
+            // every response is flushed so that the caller can handle it while the next one is generated
+            response.writeDelimitedTo(output);
+            output.flush();
+            count++;
+        }
+    }
+
     /**
      * Handles inputs from the the input stream to generate proto definitions in Monkey C
      *
@@ -56,91 +125,649 @@ public class CompilerPlugin
     }
 
     /**
-     * Parses a {@link CodeGeneratorRequest} to generate proto definitions in Monkey C
+     * Parses a {@link CodeGeneratorRequest} to generate proto definitions in Monkey C. Every message and
+     * top level enum is generated independently with its own {@link MonkeyWriter}, which allows the
+     * generation to run on a {@link ForkJoinPool}. The files are added to the response in request order,
+     * so the output is the same regardless of the number of threads. In a bundle mode every bundle is
+     * generated as a whole instead. With a cache directory, proto files (or bundles) whose descriptors,
+     * dependencies and options did not change are served from the {@link GenerationCache}.
      *
      * @param requestProto
      * @return {@link CodeGeneratorResponse} response to protobuf compiler
      */
-    static CodeGeneratorResponse handleRequest(CodeGeneratorRequest requestProto)
+    public static CodeGeneratorResponse handleRequest(CodeGeneratorRequest requestProto)
     {
         CodeGeneratorResponse.Builder response = CodeGeneratorResponse.newBuilder();
         List<DescriptorProtos.FileDescriptorProto> protoFileList = requestProto.getProtoFileList();
 
-        Map<String, String> generatorParameters = ParserUtil.getGeneratorParameters(requestProto);
+        GeneratorOptions options = GeneratorOptions.fromParameters(ParserUtil.getGeneratorParameters(requestProto));
+        String unknownProjections = options.checkProjections(protoFileList);
+        if (unknownProjections != null)
+        {
+            return ParserUtil.asError(unknownProjections);
+        }
+        String collisions = options.getBundle() == null ? checkFileNames(protoFileList) : null;
+        if (collisions != null)
+        {
+            return ParserUtil.asError(collisions);
+        }
+        String clashes = checkMemberNames(protoFileList, options);
+        if (clashes != null)
+        {
+            return ParserUtil.asError(clashes);
+        }
+
+        GenerationCache cache = openCache(options);
 
+        Map<String, DescriptorProtos.FileDescriptorProto> filesByName = new HashMap<>();
         for (DescriptorProtos.FileDescriptorProto fileDescriptorProto : protoFileList)
         {
-            StringWriter writer = new StringWriter();
-            MonkeyWriter monkeyWriter = new MonkeyWriter(writer);
-            String packageName = fileDescriptorProto.getPackage();
+            filesByName.put(fileDescriptorProto.getName(), fileDescriptorProto);
+        }
 
-            List<DescriptorProtos.DescriptorProto> messageTypeList = fileDescriptorProto.getMessageTypeList();
-            for (DescriptorProtos.DescriptorProto descriptorProto : messageTypeList)
+        //proto files that are generated and cached together, which are all files of a package when bundled by package
+        List<List<DescriptorProtos.FileDescriptorProto>> units = groupFiles(protoFileList, options);
+        List<List<CodeGeneratorResponse.File>> filesPerUnit = new ArrayList<>(units.size());
+        String[] cacheKeys = new String[units.size()];
+        boolean[] cacheMisses = new boolean[units.size()];
+        List<Callable<CodeGeneratorResponse.File>> tasks = new ArrayList<>();
+        List<Integer> taskUnits = new ArrayList<>();
+        for (int i = 0; i < units.size(); i++)
+        {
+            List<DescriptorProtos.FileDescriptorProto> unit = units.get(i);
+            if (cache != null)
             {
-                String root = "BufMonkey";
-                if(generatorParameters.containsKey(ROOT_MODULE)) {
-                    root = generatorParameters.get(ROOT_MODULE) + "." + "BufMonkey";
+                cacheKeys[i] = cache.computeKey(unit, filesByName);
+                List<CodeGeneratorResponse.File> cached = cache.get(getUnitName(unit, options), cacheKeys[i]);
+                if (cached != null)
+                {
+                    filesPerUnit.add(cached);
+                    continue;
                 }
-                monkeyWriter.writeImports(Arrays.asList("Toybox.System", root));
-                monkeyWriter.writeNamespace(packageName);
+            }
+            filesPerUnit.add(new ArrayList<>());
+            cacheMisses[i] = true;
 
-                //message enums
-                List<DescriptorProtos.EnumDescriptorProto> enumTypeList = descriptorProto.getEnumTypeList();
-                for (DescriptorProtos.EnumDescriptorProto enumDescriptorProto : enumTypeList)
+            if (options.getBundle() != null)
+            {
+                if (hasTypes(unit))
                 {
-                    monkeyWriter.writeModuleName(enumDescriptorProto.getName());
-                    monkeyWriter.writeEnum(enumDescriptorProto.getValueList());
-                    monkeyWriter.writeClosingBracket();
+                    tasks.add(() -> generateBundle(unit, options));
+                    taskUnits.add(i);
                 }
+                continue;
+            }
+
+            DescriptorProtos.FileDescriptorProto fileDescriptorProto = unit.get(0);
+            for (DescriptorProtos.DescriptorProto descriptorProto : fileDescriptorProto.getMessageTypeList())
+            {
+                tasks.add(() -> generateMessage(fileDescriptorProto, descriptorProto, options));
+                taskUnits.add(i);
+            }
+
+            for (DescriptorProtos.EnumDescriptorProto enumDescriptorProto : fileDescriptorProto.getEnumTypeList())
+            {
+                tasks.add(() -> generateEnum(fileDescriptorProto, enumDescriptorProto));
+                taskUnits.add(i);
+            }
+        }
 
-                //message class
-                String clazzName = descriptorProto.getName();
-                List<DescriptorProtos.FieldDescriptorProto> fieldList = descriptorProto.getFieldList();
+        List<CodeGeneratorResponse.File> generated = runTasks(tasks, options.getThreads());
+        for (int i = 0; i < generated.size(); i++)
+        {
+            filesPerUnit.get(taskUnits.get(i)).add(generated.get(i));
+        }
 
-                monkeyWriter.writeClassName(clazzName, "BufMonkey.BufMonkeyType");
-                Map<Integer, String> fieldMap = new HashMap<>();
-                for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldList)
+        //the budget is checked before anything is cached, so that over budget output never reaches the cache
+        List<FootprintReport.Footprint> footprints = null;
+        if (options.isFootprintReport() || options.getFootprintBudget() > 0)
+        {
+            List<CodeGeneratorResponse.File> output = new ArrayList<>();
+            for (List<CodeGeneratorResponse.File> files : filesPerUnit)
+            {
+                output.addAll(files);
+            }
+            footprints = FootprintReport.measure(protoFileList, options, output);
+            String overBudget = options.getFootprintBudget() > 0
+                    ? FootprintReport.checkBudget(footprints, options.getFootprintBudget())
+                    : null;
+            if (overBudget != null)
+            {
+                return ParserUtil.asError(overBudget);
+            }
+        }
+
+        for (int i = 0; i < units.size(); i++)
+        {
+            if (cache != null && cacheMisses[i])
+            {
+                cache.put(getUnitName(units.get(i), options), cacheKeys[i], filesPerUnit.get(i));
+            }
+            response.addAllFile(filesPerUnit.get(i));
+        }
+
+        if (cache != null)
+        {
+            cache.save();
+        }
+        if (options.isCodeSizeReport())
+        {
+            response.addFile(CodeSizeReport.create(protoFileList, options));
+        }
+        if (options.isFootprintReport())
+        {
+            response.addFile(FootprintReport.create(footprints, options));
+        }
+        return response.build();
+    }
+
+    /**
+     * Checks that no two top level messages or enums generate the same file, which happens without a
+     * bundle mode when different packages declare a type with the same name. The files would overwrite
+     * each other, so generation fails instead and points to the bundle modes.
+     *
+     * @param protoFileList List of {@link DescriptorProtos.FileDescriptorProto} of the request
+     * @return error message listing the colliding file names, or null if every name is unique
+     */
+    private static String checkFileNames(List<DescriptorProtos.FileDescriptorProto> protoFileList)
+    {
+        Map<String, List<String>> typesByFileName = new LinkedHashMap<>();
+        for (DescriptorProtos.FileDescriptorProto fileDescriptorProto : protoFileList)
+        {
+            String prefix = fileDescriptorProto.getPackage().isEmpty() ? "" : fileDescriptorProto.getPackage() + ".";
+            for (DescriptorProtos.DescriptorProto descriptorProto : fileDescriptorProto.getMessageTypeList())
+            {
+                typesByFileName.computeIfAbsent(descriptorProto.getName() + MONKEY_C_EXTENSION, key -> new ArrayList<>())
+                        .add(prefix + descriptorProto.getName());
+            }
+            for (DescriptorProtos.EnumDescriptorProto enumDescriptorProto : fileDescriptorProto.getEnumTypeList())
+            {
+                typesByFileName.computeIfAbsent(enumDescriptorProto.getName() + MONKEY_C_EXTENSION, key -> new ArrayList<>())
+                        .add(prefix + enumDescriptorProto.getName());
+            }
+        }
+
+        StringBuilder error = new StringBuilder();
+        for (Map.Entry<String, List<String>> fileName : typesByFileName.entrySet())
+        {
+            if (fileName.getValue().size() > 1)
+            {
+                appendError(error, String.join(", ", fileName.getValue()) + " generate the same file "
+                        + fileName.getKey() + ", use bundle=package or bundle=file");
+            }
+        }
+        return error.length() == 0 ? null : error.toString();
+    }
+
+    /**
+     * Checks that the members and accessors generated for the fields and oneofs of every message neither
+     * take the name of a runtime member, see {@link FieldUtil#RUNTIME_MEMBERS}, nor the name of another
+     * generated member, ie. a field "kindCase" next to the case member of the oneof "kind", and that no
+     * field or oneof uses the {@link FieldUtil#RESERVED_PREFIX}. Monkey C has no overloading,
+     * so a field "value" with a setValue(value) accessor would replace the setValue(position, value)
+     * function the decoders call and the class would not compile.
+     *
+     * @param protoFileList List of {@link DescriptorProtos.FileDescriptorProto} of the request
+     * @param options       {@link GeneratorOptions} generator options
+     * @return error message listing the clashing names, or null if every name is free
+     */
+    private static String checkMemberNames(List<DescriptorProtos.FileDescriptorProto> protoFileList,
+                                           GeneratorOptions options)
+    {
+        StringBuilder error = new StringBuilder();
+        for (DescriptorProtos.FileDescriptorProto fileDescriptorProto : protoFileList)
+        {
+            String packageName = fileDescriptorProto.getPackage();
+            for (DescriptorProtos.DescriptorProto descriptorProto : fileDescriptorProto.getMessageTypeList())
+            {
+                String messageName = packageName.isEmpty() ? descriptorProto.getName() : packageName + "." + descriptorProto.getName();
+                //generated name -> what it is generated for
+                Map<String, String> members = new HashMap<>();
+                Set<Integer> oneofs = new HashSet<>();
+                for (DescriptorProtos.FieldDescriptorProto field : options.getProjectedFields(packageName, descriptorProto))
                 {
-                    String fieldName = fieldDescriptorProto.getName();
-                    int number = fieldDescriptorProto.getNumber();
-                    fieldMap.put(number, fieldName);
-                    monkeyWriter.writeField(fieldName, "public");
+                    String origin = "field " + field.getName();
+                    if (field.getName().startsWith(FieldUtil.RESERVED_PREFIX))
+                    {
+                        appendError(error, "The " + origin + " of message " + messageName + " starts with the reserved prefix "
+                                + FieldUtil.RESERVED_PREFIX);
+                        continue;
+                    }
+                    if (!field.hasOneofIndex())
+                    {
+                        addMember(members, field.getName(), origin, messageName, error);
+                    } else if (oneofs.add(field.getOneofIndex()))
+                    {
+                        String oneofName = descriptorProto.getOneofDecl(field.getOneofIndex()).getName();
+                        String oneofOrigin = "oneof " + oneofName;
+                        if (oneofName.startsWith(FieldUtil.RESERVED_PREFIX))
+                        {
+                            appendError(error, "The " + oneofOrigin + " of message " + messageName + " starts with the reserved prefix "
+                                    + FieldUtil.RESERVED_PREFIX);
+                        } else
+                        {
+                            addMember(members, oneofName, oneofOrigin, messageName, error);
+                            addMember(members, FieldUtil.getCaseName(oneofName), oneofOrigin, messageName, error);
+                            addMember(members, FieldUtil.getGetterName(FieldUtil.getCaseName(oneofName)), oneofOrigin, messageName, error);
+                        }
+                    }
+                    //oneof members have no member of their own and are always accessed through accessors
+                    if (options.isLazyDecode() || options.isDirtyTracking() || field.hasOneofIndex())
+                    {
+                        addMember(members, FieldUtil.getGetterName(field.getName()), origin, messageName, error);
+                        addMember(members, FieldUtil.getSetterName(field.getName()), origin, messageName, error);
+                    }
                 }
+            }
+        }
+        return error.length() == 0 ? null : error.toString();
+    }
+
+    /**
+     * Records a generated member name, or appends an error if the runtime or another field or oneof
+     * already takes the name
+     */
+    private static void addMember(Map<String, String> members, String name, String origin, String messageName,
+                                  StringBuilder error)
+    {
+        String other = FieldUtil.RUNTIME_MEMBERS.contains(name) ? "the runtime" : members.putIfAbsent(name, origin);
+        if (other != null)
+        {
+            appendError(error, "The " + origin + " of message " + messageName + " generates " + name
+                    + ", which clashes with " + name + " of " + other + ", rename the " + origin);
+        }
+    }
+
+    private static void appendError(StringBuilder error, String message)
+    {
+        error.append(error.length() == 0 ? "" : System.lineSeparator()).append(message);
+    }
+
+    /**
+     * Groups the proto files into the units that are generated and cached together. Files are grouped by
+     * package in the order their package first occurs when bundled by package, otherwise every file is
+     * a unit of its own.
+     *
+     * @param protoFileList List of {@link DescriptorProtos.FileDescriptorProto} of the request
+     * @param options       {@link GeneratorOptions} generator options
+     * @return List of units in request order
+     */
+    private static List<List<DescriptorProtos.FileDescriptorProto>> groupFiles(List<DescriptorProtos.FileDescriptorProto> protoFileList,
+                                                                             GeneratorOptions options)
+    {
+        Map<String, List<DescriptorProtos.FileDescriptorProto>> units = new LinkedHashMap<>();
+        for (DescriptorProtos.FileDescriptorProto fileDescriptorProto : protoFileList)
+        {
+            String unit = GeneratorOptions.BUNDLE_PACKAGE.equals(options.getBundle())
+                    ? fileDescriptorProto.getPackage()
+                    : fileDescriptorProto.getName();
+            units.computeIfAbsent(unit, key -> new ArrayList<>()).add(fileDescriptorProto);
+        }
+        return new ArrayList<>(units.values());
+    }
+
+    /**
+     * @return name a unit is recorded under in the cache, which is the name of its proto file or, for a
+     * package bundle, the name of the bundle
+     */
+    private static String getUnitName(List<DescriptorProtos.FileDescriptorProto> unit, GeneratorOptions options)
+    {
+        return GeneratorOptions.BUNDLE_PACKAGE.equals(options.getBundle())
+                ? getBundleName(unit.get(0), options)
+                : unit.get(0).getName();
+    }
+
+    /**
+     * @return true if any of the files declares a message or a top level enum
+     */
+    private static boolean hasTypes(List<DescriptorProtos.FileDescriptorProto> files)
+    {
+        for (DescriptorProtos.FileDescriptorProto file : files)
+        {
+            if (file.getMessageTypeCount() > 0 || file.getEnumTypeCount() > 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                monkeyWriter.writeConstructor(Collections.emptyList(), "BufMonkeyType",
-                        Collections.singletonList(monkeyWriter.getTypeMapParam(fieldList)), null);
+    /**
+     * Returns the name of the bundle a proto file is generated into, which is derived from the path of
+     * its package so that equally named messages of different packages do not collide. Files without a
+     * package are bundled into {@link #DEFAULT_BUNDLE}.
+     *
+     * @param file    {@link DescriptorProtos.FileDescriptorProto} proto file
+     * @param options {@link GeneratorOptions} generator options
+     * @return file name of the bundle, ie. "my/pkg.mc" per package or "my/pkg/Status.mc" per file
+     */
+    static String getBundleName(DescriptorProtos.FileDescriptorProto file, GeneratorOptions options)
+    {
+        String packagePath = file.getPackage().replace('.', '/');
+        if (GeneratorOptions.BUNDLE_FILE.equals(options.getBundle()))
+        {
+            String name = file.getName().substring(file.getName().lastIndexOf('/') + 1);
+            if (name.endsWith(PROTO_EXTENSION))
+            {
+                name = name.substring(0, name.length() - PROTO_EXTENSION.length());
+            }
+            return (packagePath.isEmpty() ? "" : packagePath + "/") + name + MONKEY_C_EXTENSION;
+        }
+        return (packagePath.isEmpty() ? DEFAULT_BUNDLE : packagePath) + MONKEY_C_EXTENSION;
+    }
 
-                monkeyWriter.writePrintFunction(clazzName, fieldList);
-                monkeyWriter.writeSetValueFunction(fieldList);
+    /**
+     * Opens the generation cache if a cache directory is configured. Generation continues without
+     * the cache if it can not be opened.
+     *
+     * @param options {@link GeneratorOptions} generator options
+     * @return {@link GenerationCache} or null
+     */
+    private static GenerationCache openCache(GeneratorOptions options)
+    {
+        if (options.getCacheDir() == null)
+        {
+            return null;
+        }
 
-                monkeyWriter.writeClosingBrackets(packageName);
+        try
+        {
+            return GenerationCache.open(options.getCacheDir(), options);
+        } catch (IOException ex)
+        {
+            System.err.println("Unable to open the generation cache due to: " + ex.getMessage());
+            return null;
+        }
+    }
 
-                response.addFile(CodeGeneratorResponse.File.newBuilder()
-                        .setName(clazzName + ".mc")
-                        .setContent(writer.toString())
-                        .build());
+    /**
+     * Runs the generation tasks and returns their results in task order
+     *
+     * @param tasks   List of generation tasks
+     * @param threads int number of threads to use
+     * @return List of generated files in task order
+     */
+    private static <T> List<T> runTasks(List<Callable<T>> tasks, int threads)
+    {
+        List<T> results = new ArrayList<>(tasks.size());
+        // threads beyond the number of tasks would only be started to sit idle
+        threads = Math.min(threads, tasks.size());
+        if (threads <= 1)
+        {
+            for (Callable<T> task : tasks)
+            {
+                results.add(call(task));
+            }
+            return results;
+        }
 
-                monkeyWriter.flush();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            List<ForkJoinTask<T>> futures = new ArrayList<>(tasks.size());
+            for (Callable<T> task : tasks)
+            {
+                futures.add(pool.submit(task));
+            }
+            for (ForkJoinTask<T> future : futures)
+            {
+                results.add(future.join());
             }
+        } finally
+        {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Calls a generation task on the current thread
+     *
+     * @param task generation task
+     * @return task result
+     */
+    private static <T> T call(Callable<T> task)
+    {
+        try
+        {
+            return task.call();
+        } catch (RuntimeException ex)
+        {
+            throw ex;
+        } catch (Exception ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Generates the Monkey C class for a single message
+     *
+     * @param fileDescriptorProto {@link DescriptorProtos.FileDescriptorProto} file declaring the message
+     * @param descriptorProto     {@link DescriptorProtos.DescriptorProto} message to generate
+     * @param options             {@link GeneratorOptions} generator options
+     * @return generated file
+     */
+    static CodeGeneratorResponse.File generateMessage(DescriptorProtos.FileDescriptorProto fileDescriptorProto,
+                                                      DescriptorProtos.DescriptorProto descriptorProto,
+                                                      GeneratorOptions options)
+    {
+        MonkeyWriter monkeyWriter = new MonkeyWriter();
+        String packageName = fileDescriptorProto.getPackage();
+
+        monkeyWriter.writeImports(Arrays.asList("Toybox.System", options.getRuntimeModule()));
+        monkeyWriter.writeNamespace(packageName);
+        writeMessage(monkeyWriter, fileDescriptorProto, descriptorProto, options);
+        monkeyWriter.writeNamespaceClosingBrackets(packageName);
+
+        return CodeGeneratorResponse.File.newBuilder()
+                .setName(descriptorProto.getName() + ".mc")
+                .setContent(monkeyWriter.toString())
+                .build();
+    }
 
-            List<DescriptorProtos.EnumDescriptorProto> enumTypeList = fileDescriptorProto.getEnumTypeList();
-            for (DescriptorProtos.EnumDescriptorProto enumDescriptorProto : enumTypeList)
+    /**
+     * Generates the Monkey C module for a single top level enum
+     *
+     * @param fileDescriptorProto {@link DescriptorProtos.FileDescriptorProto} file declaring the enum
+     * @param enumDescriptorProto {@link DescriptorProtos.EnumDescriptorProto} enum to generate
+     * @return generated file
+     */
+    static CodeGeneratorResponse.File generateEnum(DescriptorProtos.FileDescriptorProto fileDescriptorProto,
+                                                   DescriptorProtos.EnumDescriptorProto enumDescriptorProto)
+    {
+        MonkeyWriter monkeyWriter = new MonkeyWriter();
+        String packageName = fileDescriptorProto.getPackage();
+
+        monkeyWriter.writeNamespace(packageName);
+        writeEnum(monkeyWriter, enumDescriptorProto);
+        monkeyWriter.writeNamespaceClosingBrackets(packageName);
+
+        return CodeGeneratorResponse.File.newBuilder()
+                .setName(enumDescriptorProto.getName() + ".mc")
+                .setContent(monkeyWriter.toString())
+                .build();
+    }
+
+    /**
+     * Generates a single Monkey C file with the messages and top level enums of all given proto files,
+     * which share one package. The imports and the modules of the package are written once, the
+     * classes follow in the order of the files and are separated by an empty line.
+     *
+     * @param files   List of {@link DescriptorProtos.FileDescriptorProto} files to bundle
+     * @param options {@link GeneratorOptions} generator options
+     * @return generated file
+     * @since 0.2.0
+     */
+    static CodeGeneratorResponse.File generateBundle(List<DescriptorProtos.FileDescriptorProto> files,
+                                                     GeneratorOptions options)
+    {
+        MonkeyWriter monkeyWriter = new MonkeyWriter();
+        String packageName = files.get(0).getPackage();
+
+        //enum only bundles do not need the runtime, just like enum files
+        boolean hasMessages = false;
+        for (DescriptorProtos.FileDescriptorProto file : files)
+        {
+            hasMessages |= file.getMessageTypeCount() > 0;
+        }
+        if (hasMessages)
+        {
+            monkeyWriter.writeImports(Arrays.asList("Toybox.System", options.getRuntimeModule()));
+        }
+        monkeyWriter.writeNamespace(packageName);
+
+        boolean first = true;
+        for (DescriptorProtos.FileDescriptorProto file : files)
+        {
+            for (DescriptorProtos.DescriptorProto descriptorProto : file.getMessageTypeList())
+            {
+                if (!first)
+                {
+                    monkeyWriter.writeNewLine();
+                }
+                writeMessage(monkeyWriter, file, descriptorProto, options);
+                first = false;
+            }
+            for (DescriptorProtos.EnumDescriptorProto enumDescriptorProto : file.getEnumTypeList())
             {
-                monkeyWriter.writeNamespace(packageName);
+                if (!first)
+                {
+                    monkeyWriter.writeNewLine();
+                }
+                writeEnum(monkeyWriter, enumDescriptorProto);
+                first = false;
+            }
+        }
+        monkeyWriter.writeNamespaceClosingBrackets(packageName);
 
-                monkeyWriter.writeModuleName(enumDescriptorProto.getName());
-                monkeyWriter.writeEnum(enumDescriptorProto.getValueList());
-                monkeyWriter.writeClosingBrackets(packageName);
+        return CodeGeneratorResponse.File.newBuilder()
+                .setName(getBundleName(files.get(0), options))
+                .setContent(monkeyWriter.toString())
+                .build();
+    }
 
-                response.addFile(CodeGeneratorResponse.File.newBuilder()
-                        .setName(enumDescriptorProto.getName() + ".mc")
-                        .setContent(writer.toString())
-                        .build());
+    /**
+     * Writes the enums and the class of a single message into the modules of its package
+     *
+     * @param monkeyWriter        {@link MonkeyWriter} writer positioned inside the package modules
+     * @param fileDescriptorProto {@link DescriptorProtos.FileDescriptorProto} file declaring the message
+     * @param descriptorProto     {@link DescriptorProtos.DescriptorProto} message to write
+     * @param options             {@link GeneratorOptions} generator options
+     */
+    private static void writeMessage(MonkeyWriter monkeyWriter,
+                                     DescriptorProtos.FileDescriptorProto fileDescriptorProto,
+                                     DescriptorProtos.DescriptorProto descriptorProto,
+                                     GeneratorOptions options)
+    {
+        String packageName = fileDescriptorProto.getPackage();
+        boolean proto3 = "proto3".equals(fileDescriptorProto.getSyntax());
+        //message enums
+        List<DescriptorProtos.EnumDescriptorProto> enumTypeList = descriptorProto.getEnumTypeList();
+        for (DescriptorProtos.EnumDescriptorProto enumDescriptorProto : enumTypeList)
+        {
+            monkeyWriter.writeModuleName(enumDescriptorProto.getName());
+            monkeyWriter.writeEnum(enumDescriptorProto.getValueList());
+            monkeyWriter.writeClosingBracket();
+        }
+
+        //message class
+        String clazzName = descriptorProto.getName();
+        //only projected fields get storage and code, every other field is skipped when decoding
+        List<DescriptorProtos.FieldDescriptorProto> fieldList = options.getProjectedFields(packageName, descriptorProto);
 
-                monkeyWriter.flush();
+        //lazy classes keep their fields hidden behind accessors that decode them on first access
+        boolean lazy = options.isLazyDecode();
+        //tracked fields are hidden as well, so that they can only be changed through setters that mark them
+        String modifier = lazy || options.isDirtyTracking() ? "hidden" : "public";
+        String parentClass = lazy ? "LazyBufMonkeyType" : "BufMonkeyType";
+
+        //map fields are stored in a Dictionary, their entry messages are not generated
+        Map<Integer, DescriptorProtos.DescriptorProto> mapEntries = FieldUtil.getMapEntries(
+                packageName.isEmpty() ? clazzName : packageName + "." + clazzName, descriptorProto);
+        monkeyWriter.setOneofDecls(descriptorProto.getOneofDeclList());
+        monkeyWriter.setMapEntries(mapEntries);
+        monkeyWriter.setPreserveUnknownFields(options.isPreserveUnknownFields());
+        monkeyWriter.setNativeNumbers(options.isNativeNumbers());
+        monkeyWriter.setInstrumentation(options.isInstrumentation());
+        monkeyWriter.setDirtyTracking(options.isDirtyTracking());
+        monkeyWriter.writeClassName(clazzName, "BufMonkey." + parentClass);
+        //oneof members share one value and case member per oneof
+        Set<Integer> oneofs = new HashSet<>();
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldList)
+        {
+            if (!fieldDescriptorProto.hasOneofIndex())
+            {
+                monkeyWriter.writeField(fieldDescriptorProto.getName(), modifier);
+            } else if (oneofs.add(fieldDescriptorProto.getOneofIndex()))
+            {
+                String oneofName = descriptorProto.getOneofDecl(fieldDescriptorProto.getOneofIndex()).getName();
+                monkeyWriter.writeField(oneofName, modifier);
+                monkeyWriter.writeField(FieldUtil.getCaseName(oneofName), modifier);
             }
         }
+        //encoded bytes of the fields that are not known to the message
+        if (options.isPreserveUnknownFields())
+        {
+            monkeyWriter.writeField("unknownFields", "public");
+        }
+        //spare embedded messages and arrays that are reused after clear()
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldList)
+        {
+            if (FieldUtil.isReusable(fieldDescriptorProto) && !mapEntries.containsKey(fieldDescriptorProto.getNumber()))
+            {
+                monkeyWriter.writeField(FieldUtil.getSpareName(fieldDescriptorProto), "hidden");
+            }
+        }
+        //bits of the fields changed by setters since the last encode
+        monkeyWriter.writeDirtyFields(fieldList);
 
-        return response.build();
+        monkeyWriter.writeDescriptor(fieldList);
+
+        monkeyWriter.writeConstructor(Collections.emptyList(), parentClass,
+                Collections.emptyList(), null);
+        monkeyWriter.writeGetDescriptorFunction();
+        monkeyWriter.writeCompatNumbersFunction();
+
+        //the size profile leaves out the debug printers
+        if (options.isPrintEnabled())
+        {
+            monkeyWriter.writePrintFunction(clazzName, fieldList, lazy);
+        }
+        monkeyWriter.writeClearFunction(fieldList, lazy);
+        monkeyWriter.writeSetValueFunction(fieldList);
+        monkeyWriter.writeCreateMessageFunction(fieldList);
+        monkeyWriter.writeDecodeMapEntryFunction(fieldList);
+        monkeyWriter.writeAddUnknownFieldFunction();
+        if (lazy)
+        {
+            monkeyWriter.writeLazyFunctions(fieldList);
+        } else if (options.isSpecializedDecode())
+        {
+            monkeyWriter.writeDecodeFunction(fieldList);
+        } else
+        {
+            monkeyWriter.writeInterpretedDecodeFunction();
+        }
+        monkeyWriter.writeAccessors(fieldList, lazy);
+        monkeyWriter.writeDirtyFunctions(fieldList);
+        monkeyWriter.writeComputeSizeFunction(fieldList, proto3, lazy);
+        monkeyWriter.writeWriteToFunction(fieldList, proto3);
+        monkeyWriter.writeInstrumentedEncodeFunction(parentClass);
+
+        monkeyWriter.writeClosingBracket();
+    }
+
+    /**
+     * Writes the module of a single top level enum into the modules of its package
+     *
+     * @param monkeyWriter        {@link MonkeyWriter} writer positioned inside the package modules
+     * @param enumDescriptorProto {@link DescriptorProtos.EnumDescriptorProto} enum to write
+     */
+    private static void writeEnum(MonkeyWriter monkeyWriter, DescriptorProtos.EnumDescriptorProto enumDescriptorProto)
+    {
+        monkeyWriter.writeModuleName(enumDescriptorProto.getName());
+        monkeyWriter.writeEnum(enumDescriptorProto.getValueList());
+        monkeyWriter.writeClosingBracket();
     }
 }
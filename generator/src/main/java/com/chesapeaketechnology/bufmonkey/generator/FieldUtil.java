@@ -0,0 +1,470 @@
+package com.chesapeaketechnology.bufmonkey.generator;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Helper methods for deriving wire level information from protobuf field descriptors
+ *
+ * @since 0.2.0
+ */
+public final class FieldUtil
+{
+    /**
+     * Varint wire type (int32, int64, uint32, uint64, sint32, sint64, bool, enum)
+     */
+    public static final int WIRETYPE_VARINT = 0;
+
+    /**
+     * 64-bit wire type (fixed64, sfixed64, double)
+     */
+    public static final int WIRETYPE_FIXED64 = 1;
+
+    /**
+     * Length delimited wire type (string, bytes, embedded messages, packed repeated fields)
+     */
+    public static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    /**
+     * 32-bit wire type (fixed32, sfixed32, float)
+     */
+    public static final int WIRETYPE_FIXED32 = 5;
+
+    /**
+     * Flag added to the type code of repeated fields in generated DESCRIPTOR tables
+     */
+    public static final int FLAG_REPEATED = 32;
+
+    /**
+     * Flag added to the type code of map fields in generated DESCRIPTOR tables. Entries of map fields
+     * are handed to the generated decodeMapEntry function instead of being decoded into a message.
+     */
+    public static final int FLAG_MAP = 64;
+
+    /**
+     * Field number of the key of a map entry
+     */
+    public static final int MAP_KEY = 1;
+
+    /**
+     * Field number of the value of a map entry
+     */
+    public static final int MAP_VALUE = 2;
+
+    /**
+     * Prefix of the hidden members the runtime and the generator add to message classes. Fields and
+     * oneofs whose names start with it are rejected, so that these members never clash with them.
+     */
+    public static final String RESERVED_PREFIX = "bm_";
+
+    /**
+     * Names of the members of BufMonkeyType and LazyBufMonkeyType, and of the members generated for
+     * the runtime, which no field, oneof or accessor of a message may take. Monkey C has no overloading,
+     * so a field member or accessor with one of these names replaces the function the runtime calls.
+     */
+    public static final Set<String> RUNTIME_MEMBERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "initialize", "DESCRIPTOR", "getDescriptor", "createMessage", "decodeMapEntry", "addUnknownField",
+            "keepsUnknownFields", "unknownFields", "print", "clear", "setValue", "isCompatNumbers", "computeSize", "getCachedSize", "writeTo", "encode",
+            "encodeDelta", "isDirty", "clearDirty", "decode", "mergeFrom",
+            "decodeRange", "decodeAsync", "decodeFrom", "SLOT_UNKNOWN", "getLazySlot", "getLazyIndexSize",
+            "decodeLazyField", "clearIndex", "materialize", "discard", "materializeAll")));
+
+    private FieldUtil()
+    {
+    }
+
+    /**
+     * @param field field descriptor
+     * @return true if the field is declared as repeated
+     */
+    public static boolean isRepeated(FieldDescriptorProto field)
+    {
+        return field.getLabel() == FieldDescriptorProto.Label.LABEL_REPEATED;
+    }
+
+    /**
+     * @param field field descriptor
+     * @return true if the field holds an embedded message
+     */
+    public static boolean isMessage(FieldDescriptorProto field)
+    {
+        return field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE;
+    }
+
+    /**
+     * @param field field descriptor
+     * @return true if the value of the field is kept as a spare by clear() and reused by the next decode,
+     * which applies to embedded messages and the arrays of packable fields outside of oneofs
+     */
+    public static boolean isReusable(FieldDescriptorProto field)
+    {
+        return !field.hasOneofIndex() && (isMessage(field) || isPackable(field));
+    }
+
+    /**
+     * @param field field descriptor
+     * @return name of the hidden member holding the spare value of a reusable field, which carries the
+     * {@link #RESERVED_PREFIX} so that it does not clash with a field named like it
+     */
+    public static String getSpareName(FieldDescriptorProto field)
+    {
+        return RESERVED_PREFIX + field.getName() + "Spare";
+    }
+
+    /**
+     * @param oneofName name of a oneof
+     * @return name of the member holding the field number of the member of the oneof that is set
+     */
+    public static String getCaseName(String oneofName)
+    {
+        return oneofName + "Case";
+    }
+
+    /**
+     * @param name name of a field
+     * @return name of the getter function of the field
+     */
+    public static String getGetterName(String name)
+    {
+        return "get" + capitalize(name);
+    }
+
+    /**
+     * @param name name of a field
+     * @return name of the setter function of the field
+     */
+    public static String getSetterName(String name)
+    {
+        return "set" + capitalize(name);
+    }
+
+    private static String capitalize(String name)
+    {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Assigns the index slots of a lazy message class, two entries per field. The members of a oneof
+     * share one slot so that the member that comes last on the wire wins.
+     *
+     * @param fieldDescriptorProtos field list
+     * @return index slot of every field by position in the field list
+     */
+    public static int[] getLazySlots(List<FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        int[] slots = new int[fieldDescriptorProtos.size()];
+        Map<Integer, Integer> oneofSlots = new HashMap<>();
+        int next = 0;
+        for (int i = 0; i < slots.length; i++)
+        {
+            FieldDescriptorProto field = fieldDescriptorProtos.get(i);
+            Integer slot = field.hasOneofIndex() ? oneofSlots.get(field.getOneofIndex()) : null;
+            if (slot == null)
+            {
+                slot = next;
+                next += 2;
+                if (field.hasOneofIndex())
+                {
+                    oneofSlots.put(field.getOneofIndex(), slot);
+                }
+            }
+            slots[i] = slot;
+        }
+        return slots;
+    }
+
+    /**
+     * Finds the entry messages of the map fields of a message. protoc declares a map field as a repeated
+     * field of a nested message with the map_entry option, whose key and value are the fields
+     * {@link #MAP_KEY} and {@link #MAP_VALUE}. Fields are matched by the fully qualified name of the
+     * entry, so that a message of the same name in another scope is not taken for a map entry.
+     *
+     * @param typeName fully qualified name of the message, with or without the leading "."
+     * @param message  message descriptor
+     * @return map entry message of every map field by field number
+     */
+    public static Map<Integer, DescriptorProto> getMapEntries(String typeName, DescriptorProto message)
+    {
+        String prefix = (typeName.startsWith(".") ? typeName : "." + typeName) + ".";
+        Map<Integer, DescriptorProto> entries = new HashMap<>();
+        for (DescriptorProto nested : message.getNestedTypeList())
+        {
+            if (!nested.getOptions().getMapEntry())
+            {
+                continue;
+            }
+            for (FieldDescriptorProto field : message.getFieldList())
+            {
+                if (isRepeated(field) && isMessage(field) && field.getTypeName().equals(prefix + nested.getName()))
+                {
+                    entries.put(field.getNumber(), nested);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @param entry map entry message descriptor, see {@link #getMapEntries(String, DescriptorProto)}
+     * @param number {@link #MAP_KEY} or {@link #MAP_VALUE}
+     * @return the key or value field of the entry
+     */
+    public static FieldDescriptorProto getMapEntryField(DescriptorProto entry, int number)
+    {
+        for (FieldDescriptorProto field : entry.getFieldList())
+        {
+            if (field.getNumber() == number)
+            {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Map entry " + entry.getName() + " has no field " + number);
+    }
+
+    /**
+     * @param field field descriptor
+     * @return true if the field is a repeated scalar numeric field that may be sent in packed form
+     */
+    public static boolean isPackable(FieldDescriptorProto field)
+    {
+        if (!isRepeated(field))
+        {
+            return false;
+        }
+
+        int wireType = getWireType(field);
+        return wireType == WIRETYPE_VARINT || wireType == WIRETYPE_FIXED64 || wireType == WIRETYPE_FIXED32;
+    }
+
+    /**
+     * Checks whether a repeated field is encoded in packed form. Repeated scalar numeric fields are
+     * packed by default in proto3 files and only with the packed option in proto2 files.
+     *
+     * @param field  field descriptor
+     * @param proto3 whether the field is declared in a proto3 file
+     * @return true if the field is encoded in packed form
+     */
+    public static boolean isPacked(FieldDescriptorProto field, boolean proto3)
+    {
+        if (!isPackable(field))
+        {
+            return false;
+        }
+
+        if (field.hasOptions() && field.getOptions().hasPacked())
+        {
+            return field.getOptions().getPacked();
+        }
+        return proto3;
+    }
+
+    /**
+     * Returns the wire type used for a single (unpacked) value of the field
+     *
+     * @param field field descriptor
+     * @return protobuf wire type, or -1 for unsupported types (groups)
+     */
+    public static int getWireType(FieldDescriptorProto field)
+    {
+        switch (field.getType())
+        {
+            case TYPE_INT32:
+            case TYPE_INT64:
+            case TYPE_UINT32:
+            case TYPE_UINT64:
+            case TYPE_SINT32:
+            case TYPE_SINT64:
+            case TYPE_BOOL:
+            case TYPE_ENUM:
+                return WIRETYPE_VARINT;
+            case TYPE_DOUBLE:
+            case TYPE_FIXED64:
+            case TYPE_SFIXED64:
+                return WIRETYPE_FIXED64;
+            case TYPE_STRING:
+            case TYPE_BYTES:
+            case TYPE_MESSAGE:
+                return WIRETYPE_LENGTH_DELIMITED;
+            case TYPE_FLOAT:
+            case TYPE_FIXED32:
+            case TYPE_SFIXED32:
+                return WIRETYPE_FIXED32;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the integer type code of the field as used in generated DESCRIPTOR tables. The code is
+     * the protobuf type number with {@link #FLAG_REPEATED} added for repeated fields.
+     *
+     * @param field field descriptor
+     * @return integer type code
+     */
+    public static int getTypeCode(FieldDescriptorProto field)
+    {
+        int code = field.getType().getNumber();
+        if (isRepeated(field))
+        {
+            code |= FLAG_REPEATED;
+        }
+        return code;
+    }
+
+    /**
+     * Builds the integer tag value (field number and wire type) as it appears on the wire
+     *
+     * @param fieldNumber protobuf field number
+     * @param wireType    protobuf wire type
+     * @return tag value
+     */
+    public static int makeTag(int fieldNumber, int wireType)
+    {
+        return (fieldNumber << 3) | wireType;
+    }
+
+    /**
+     * Encodes a tag value as the varint bytes that precede a field on the wire
+     *
+     * @param tag tag value built by {@link #makeTag(int, int)}
+     * @return varint encoded tag bytes
+     */
+    public static int[] getTagBytes(int tag)
+    {
+        int[] bytes = new int[getVarintSize(tag)];
+        for (int i = 0; i < bytes.length - 1; i++)
+        {
+            bytes[i] = (tag & 0x7F) | 0x80;
+            tag >>>= 7;
+        }
+        bytes[bytes.length - 1] = tag;
+        return bytes;
+    }
+
+    /**
+     * @param value unsigned 32 bit value
+     * @return number of bytes the value takes up as a varint
+     */
+    public static int getVarintSize(int value)
+    {
+        int size = 1;
+        while ((value & ~0x7F) != 0)
+        {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the encoded size of a single value for fields that have a fixed size on the wire
+     *
+     * @param field field descriptor
+     * @return size in bytes, or -1 if the size depends on the value
+     */
+    public static int getFixedSize(FieldDescriptorProto field)
+    {
+        switch (field.getType())
+        {
+            case TYPE_BOOL:
+                return 1;
+            case TYPE_FLOAT:
+            case TYPE_FIXED32:
+            case TYPE_SFIXED32:
+                return 4;
+            case TYPE_DOUBLE:
+            case TYPE_FIXED64:
+            case TYPE_SFIXED64:
+                return 8;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the name of the BufMonkey.ProtoReader function that reads a single value of the field
+     *
+     * @param field field descriptor
+     * @return reader function name, or null for unsupported types
+     */
+    public static String getReadFunction(FieldDescriptorProto field)
+    {
+        return getReadFunction(field, true);
+    }
+
+    /**
+     * Returns the ProtoReader function that reads a single value of the field, using the Compat
+     * functions for fixed width values if the target has no ByteArray.decodeNumber
+     *
+     * @param field         field descriptor
+     * @param nativeNumbers boolean whether fixed width values are read with ByteArray.decodeNumber,
+     *                      see GeneratorOptions.isNativeNumbers
+     * @return function name, or null for unsupported types
+     */
+    public static String getReadFunction(FieldDescriptorProto field, boolean nativeNumbers)
+    {
+        int wireType = getWireType(field);
+        if (!nativeNumbers && (wireType == WIRETYPE_FIXED32 || wireType == WIRETYPE_FIXED64))
+        {
+            return getReadFunction(field, true) + "Compat";
+        }
+        switch (field.getType())
+        {
+            case TYPE_DOUBLE:
+                return "readDouble";
+            case TYPE_FLOAT:
+                return "readFloat";
+            case TYPE_INT64:
+            case TYPE_UINT64:
+                return "readVarLong";
+            case TYPE_INT32:
+            case TYPE_UINT32:
+            case TYPE_ENUM:
+                return "readVarint";
+            case TYPE_SINT32:
+                return "readSint32";
+            case TYPE_SINT64:
+                return "readSint64";
+            case TYPE_BOOL:
+                return "readBool";
+            case TYPE_FIXED32:
+                return "readFixed32";
+            case TYPE_SFIXED32:
+                return "readSfixed32";
+            case TYPE_FIXED64:
+            case TYPE_SFIXED64:
+                return "readFixed64";
+            case TYPE_STRING:
+                return "readString";
+            case TYPE_BYTES:
+            case TYPE_MESSAGE:
+                return "readBytes";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the Monkey C class name for an embedded message field
+     *
+     * @param field field descriptor
+     * @return fully qualified Monkey C class name
+     */
+    public static String getMessageClassName(FieldDescriptorProto field)
+    {
+        String typeName = field.getTypeName();
+        if (typeName.startsWith("."))
+        {
+            typeName = typeName.substring(1);
+        }
+        return typeName;
+    }
+}
@@ -0,0 +1,517 @@
+package com.chesapeaketechnology.bufmonkey.generator;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Report of the estimated memory and code footprint of every generated message class, written as JSON
+ * so that builds can check it before a schema change ships. The heap estimates follow a simple model of
+ * the Monkey C VM: every object (instance, Array, Dictionary, String, ByteArray, Long and Double) has a
+ * header, and every member, Array element and Dictionary key or value takes up a slot which holds a
+ * Number, Float, Boolean or null inline and every other value as a reference. The lengths of String and
+ * ByteArray values are not known at build time, so only their headers are counted and the fields are
+ * listed as variable.
+ *
+ * @since 0.2.0
+ */
+public final class FootprintReport
+{
+    /**
+     * Name of the report file in the output directory
+     */
+    static final String FILE_NAME = "bufmonkey-footprint.json";
+
+    /**
+     * Estimated bytes of the header of a heap object
+     */
+    static final int OBJECT_BYTES = 16;
+
+    /**
+     * Estimated bytes of a member, Array element or Dictionary key or value
+     */
+    static final int SLOT_BYTES = 8;
+
+    /**
+     * Bytes of the value of a Long or Double, which are allocated on the heap
+     */
+    static final int WIDE_BYTES = 8;
+
+    /**
+     * Members that BufMonkeyType adds to every message class, the size cached by computeSize
+     */
+    private static final int BASE_MEMBERS = 1;
+
+    /**
+     * Members that LazyBufMonkeyType adds to every lazy message class, the payload and its index
+     */
+    private static final int LAZY_BASE_MEMBERS = 2;
+
+    private final GeneratorOptions options;
+
+    /**
+     * Every message of the request including nested ones, by fully qualified type name (".pkg.Message")
+     */
+    private final Map<String, DescriptorProto> messages = new HashMap<>();
+
+    /**
+     * Package of every message of the request, by fully qualified type name
+     */
+    private final Map<String, String> packages = new HashMap<>();
+
+    /**
+     * Top level messages, which are the ones classes are generated for, by fully qualified type name
+     */
+    private final Set<String> classes = new HashSet<>();
+
+    /**
+     * Estimated footprint of a single generated message class
+     */
+    static final class Footprint
+    {
+        /**
+         * Fully qualified name of the message
+         */
+        final String name;
+
+        /**
+         * Heap bytes of an instance with its members, not counting the values they refer to
+         */
+        int instanceBytes;
+
+        /**
+         * Heap bytes of a decoded message with every singular field set, including its embedded
+         * messages and empty repeated fields
+         */
+        int graphBytes;
+
+        /**
+         * Heap bytes of the DESCRIPTOR table, which is shared by all instances of the class
+         */
+        int descriptorBytes;
+
+        /**
+         * Deepest nesting of embedded messages, a message without embedded messages has depth 1
+         */
+        int maxDepth;
+
+        /**
+         * Whether the message can contain itself, which makes its depth and graph unbounded. The
+         * depth and graph are then measured up to the first repetition.
+         */
+        boolean recursive;
+
+        /**
+         * Heap bytes added by every element of a repeated or map field, by field name
+         */
+        final Map<String, Integer> elementBytes = new LinkedHashMap<>();
+
+        /**
+         * String and bytes fields whose values add their length to the estimates
+         */
+        final List<String> variableFields = new ArrayList<>();
+
+        /**
+         * Monkey C statements and source bytes of the generated class, see {@link CodeSizeReport}
+         */
+        int statements;
+        int codeBytes;
+
+        Footprint(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    private FootprintReport(List<FileDescriptorProto> files, GeneratorOptions options)
+    {
+        this.options = options;
+        for (FileDescriptorProto file : files)
+        {
+            String prefix = file.getPackage().isEmpty() ? "." : "." + file.getPackage() + ".";
+            for (DescriptorProto message : file.getMessageTypeList())
+            {
+                addMessage(file.getPackage(), prefix, message);
+                classes.add(prefix + message.getName());
+            }
+        }
+    }
+
+    private void addMessage(String packageName, String prefix, DescriptorProto message)
+    {
+        messages.put(prefix + message.getName(), message);
+        packages.put(prefix + message.getName(), packageName);
+        for (DescriptorProto nested : message.getNestedTypeList())
+        {
+            addMessage(packageName, prefix + message.getName() + ".", nested);
+        }
+    }
+
+    /**
+     * Measures every top level message of the provided files with the current options. The heap
+     * estimates are derived from the descriptors alone, the code size is taken from the output files of
+     * the request, which hold the generated or cached classes.
+     *
+     * @param files     List of {@link FileDescriptorProto} of the request
+     * @param options   {@link GeneratorOptions} of the request
+     * @param generated List of {@link CodeGeneratorResponse.File} output files of the request
+     * @return List of footprints in request order
+     */
+    public static List<Footprint> measure(List<FileDescriptorProto> files, GeneratorOptions options,
+                                          List<CodeGeneratorResponse.File> generated)
+    {
+        Map<String, String> contents = new HashMap<>();
+        for (CodeGeneratorResponse.File file : generated)
+        {
+            contents.put(file.getName(), file.getContent());
+        }
+
+        FootprintReport report = new FootprintReport(files, options);
+        List<Footprint> footprints = new ArrayList<>();
+        for (FileDescriptorProto file : files)
+        {
+            String prefix = file.getPackage().isEmpty() ? "." : "." + file.getPackage() + ".";
+            for (DescriptorProto message : file.getMessageTypeList())
+            {
+                String fileName = options.getBundle() == null
+                        ? message.getName() + CompilerPlugin.MONKEY_C_EXTENSION
+                        : CompilerPlugin.getBundleName(file, options);
+                footprints.add(report.measure(prefix + message.getName(),
+                        findClass(contents.getOrDefault(fileName, ""), message.getName())));
+            }
+        }
+        return footprints;
+    }
+
+    /**
+     * Finds the generated class of a message in a file, which also holds the classes of the other
+     * messages of a bundle. MonkeyWriter closes a class at the indentation it opened it with.
+     *
+     * @return source of the class, or an empty String if the file does not declare it
+     */
+    static String findClass(String content, String className)
+    {
+        Matcher matcher = Pattern.compile("^([ \\t]*)class " + Pattern.quote(className) + " ", Pattern.MULTILINE)
+                .matcher(content);
+        if (!matcher.find())
+        {
+            return "";
+        }
+        Matcher end = Pattern.compile("^" + matcher.group(1) + "}$", Pattern.MULTILINE).matcher(content);
+        return end.find(matcher.end())
+                ? content.substring(matcher.start(), end.end())
+                : content.substring(matcher.start());
+    }
+
+    /**
+     * Creates the JSON report file of the provided footprints
+     *
+     * @param footprints List of footprints, see {@link #measure(List, GeneratorOptions)}
+     * @param options    {@link GeneratorOptions} of the request
+     * @return report file
+     */
+    public static CodeGeneratorResponse.File create(List<Footprint> footprints, GeneratorOptions options)
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"profile\": ").append(quote(options.getProfile())).append(",\n");
+        json.append("  \"minSdkVersion\": ").append(quote(options.getMinSdkVersion())).append(",\n");
+        json.append("  \"footprintBudget\": ").append(options.getFootprintBudget() > 0 ? String.valueOf(options.getFootprintBudget()) : "null").append(",\n");
+        json.append("  \"objectBytes\": ").append(OBJECT_BYTES).append(",\n");
+        json.append("  \"slotBytes\": ").append(SLOT_BYTES).append(",\n");
+        json.append("  \"messages\": [");
+        for (int i = 0; i < footprints.size(); i++)
+        {
+            Footprint footprint = footprints.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\n");
+            json.append("      \"name\": ").append(quote(footprint.name)).append(",\n");
+            json.append("      \"instanceBytes\": ").append(footprint.instanceBytes).append(",\n");
+            json.append("      \"graphBytes\": ").append(footprint.graphBytes).append(",\n");
+            json.append("      \"descriptorBytes\": ").append(footprint.descriptorBytes).append(",\n");
+            json.append("      \"maxDepth\": ").append(footprint.maxDepth).append(",\n");
+            json.append("      \"recursive\": ").append(footprint.recursive).append(",\n");
+            json.append("      \"elementBytes\": {");
+            int element = 0;
+            for (Map.Entry<String, Integer> entry : footprint.elementBytes.entrySet())
+            {
+                json.append(element++ == 0 ? "" : ", ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+            }
+            json.append("},\n");
+            json.append("      \"variableFields\": [");
+            for (int field = 0; field < footprint.variableFields.size(); field++)
+            {
+                json.append(field == 0 ? "" : ", ").append(quote(footprint.variableFields.get(field)));
+            }
+            json.append("],\n");
+            json.append("      \"codeStatements\": ").append(footprint.statements).append(",\n");
+            json.append("      \"codeBytes\": ").append(footprint.codeBytes).append("\n");
+            json.append("    }");
+        }
+        json.append(footprints.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+
+        return CodeGeneratorResponse.File.newBuilder()
+                .setName(FILE_NAME)
+                .setContent(json.toString())
+                .build();
+    }
+
+    /**
+     * Checks the graph of every message against the footprint budget
+     *
+     * @param footprints List of footprints, see {@link #measure(List, GeneratorOptions)}
+     * @param budget     int estimated heap bytes a message graph may take up
+     * @return error message listing the messages over the budget, or null if all of them fit
+     */
+    public static String checkBudget(List<Footprint> footprints, int budget)
+    {
+        StringBuilder error = new StringBuilder();
+        for (Footprint footprint : footprints)
+        {
+            if (footprint.graphBytes > budget)
+            {
+                error.append(error.length() == 0 ? "" : System.lineSeparator())
+                        .append("Message ").append(footprint.name).append(" takes up an estimated ")
+                        .append(footprint.graphBytes).append(" bytes, over the ")
+                        .append(GeneratorOptions.FOOTPRINT_BUDGET).append(" of ").append(budget).append(" bytes");
+            }
+        }
+        return error.length() == 0 ? null : error.toString();
+    }
+
+    private Footprint measure(String typeName, String code)
+    {
+        DescriptorProto message = messages.get(typeName);
+        Footprint footprint = new Footprint(typeName.substring(1));
+        footprint.instanceBytes = getInstanceBytes(typeName);
+        footprint.descriptorBytes = OBJECT_BYTES + getFields(typeName).size() * 2 * SLOT_BYTES;
+        footprint.statements = CodeSizeReport.countStatements(code);
+        footprint.codeBytes = CodeSizeReport.countBytes(code);
+
+        Deque<String> path = new ArrayDeque<>();
+        footprint.graphBytes = getGraphBytes(typeName, path, footprint);
+        footprint.maxDepth = getDepth(typeName, new HashSet<>(), footprint);
+
+        Map<Integer, DescriptorProto> mapEntries = FieldUtil.getMapEntries(typeName, message);
+        for (FieldDescriptorProto field : getFields(typeName))
+        {
+            if (field.getType() == FieldDescriptorProto.Type.TYPE_STRING || field.getType() == FieldDescriptorProto.Type.TYPE_BYTES)
+            {
+                footprint.variableFields.add(field.getName());
+            }
+            if (!FieldUtil.isRepeated(field))
+            {
+                continue;
+            }
+
+            path.push(typeName);
+            DescriptorProto entry = mapEntries.get(field.getNumber());
+            footprint.elementBytes.put(field.getName(), entry == null
+                    ? SLOT_BYTES + getValueBytes(field, path, footprint)
+                    : 2 * SLOT_BYTES + getValueBytes(FieldUtil.getMapEntryField(entry, 1), path, footprint)
+                    + getValueBytes(FieldUtil.getMapEntryField(entry, 2), path, footprint));
+            path.pop();
+        }
+        return footprint;
+    }
+
+    /**
+     * @return fields of a message that get storage, which are its projected fields
+     */
+    private List<FieldDescriptorProto> getFields(String typeName)
+    {
+        return options.getProjectedFields(packages.get(typeName), messages.get(typeName));
+    }
+
+    /**
+     * @return heap bytes of an instance of a message class, from the members CompilerPlugin declares for
+     * its generated class or, for nested messages that no class is generated for, from its fields
+     */
+    private int getInstanceBytes(String typeName)
+    {
+        List<FieldDescriptorProto> fields = getFields(typeName);
+        int members = fields.size();
+        if (classes.contains(typeName))
+        {
+            members = getClassMembers(typeName, fields);
+        }
+
+        int bytes = OBJECT_BYTES + (BASE_MEMBERS + members) * SLOT_BYTES;
+        if (options.isLazyDecode())
+        {
+            // the lazy index holds a start and end position per lazy slot
+            int[] slots = FieldUtil.getLazySlots(getFields(typeName));
+            int indexSize = 0;
+            for (int slot : slots)
+            {
+                indexSize = Math.max(indexSize, slot + 2);
+            }
+            bytes += LAZY_BASE_MEMBERS * SLOT_BYTES + OBJECT_BYTES + indexSize * SLOT_BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of members of a generated class: a member per field outside a oneof, a value and a
+     * case member per oneof, the unknown fields, a spare per reusable field and the dirty tracking state
+     */
+    private int getClassMembers(String typeName, List<FieldDescriptorProto> fields)
+    {
+        Map<Integer, DescriptorProto> mapEntries = FieldUtil.getMapEntries(typeName, messages.get(typeName));
+        Set<Integer> oneofs = new HashSet<>();
+        int members = 0;
+        for (FieldDescriptorProto field : fields)
+        {
+            if (!field.hasOneofIndex())
+            {
+                members++;
+            } else if (oneofs.add(field.getOneofIndex()))
+            {
+                members += 2;
+            }
+            if (FieldUtil.isReusable(field) && !mapEntries.containsKey(field.getNumber()))
+            {
+                members++;
+            }
+        }
+        if (options.isPreserveUnknownFields())
+        {
+            members++;
+        }
+        if (options.isDirtyTracking())
+        {
+            members += MonkeyWriter.getDirtyWords(fields) + 1;
+        }
+        return members;
+    }
+
+    /**
+     * @return heap bytes of a message with every singular field set. Embedded messages that are already
+     * on the path are not counted again, which marks the footprint as recursive.
+     */
+    private int getGraphBytes(String typeName, Deque<String> path, Footprint footprint)
+    {
+        DescriptorProto message = messages.get(typeName);
+        if (message == null)
+        {
+            return OBJECT_BYTES;
+        }
+        if (path.contains(typeName))
+        {
+            footprint.recursive = true;
+            return 0;
+        }
+
+        path.push(typeName);
+        int bytes = getInstanceBytes(typeName);
+        Set<Integer> oneofs = new HashSet<>();
+        for (FieldDescriptorProto field : getFields(typeName))
+        {
+            if (FieldUtil.isRepeated(field))
+            {
+                // an empty Array or Dictionary, its elements are listed per field
+                bytes += OBJECT_BYTES;
+            } else if (field.hasOneofIndex())
+            {
+                // the members of a oneof share their storage, so only the largest one is counted
+                if (oneofs.add(field.getOneofIndex()))
+                {
+                    int largest = 0;
+                    for (FieldDescriptorProto member : getFields(typeName))
+                    {
+                        if (member.hasOneofIndex() && member.getOneofIndex() == field.getOneofIndex())
+                        {
+                            largest = Math.max(largest, getValueBytes(member, path, footprint));
+                        }
+                    }
+                    bytes += largest;
+                }
+            } else
+            {
+                bytes += getValueBytes(field, path, footprint);
+            }
+        }
+        path.pop();
+        return bytes;
+    }
+
+    /**
+     * @return heap bytes a single value of a field adds beyond its slot
+     */
+    private int getValueBytes(FieldDescriptorProto field, Deque<String> path, Footprint footprint)
+    {
+        switch (field.getType())
+        {
+            case TYPE_INT64:
+            case TYPE_UINT64:
+            case TYPE_SINT64:
+            case TYPE_FIXED64:
+            case TYPE_SFIXED64:
+            case TYPE_DOUBLE:
+                return OBJECT_BYTES + WIDE_BYTES;
+            case TYPE_STRING:
+            case TYPE_BYTES:
+                return OBJECT_BYTES;
+            case TYPE_MESSAGE:
+            case TYPE_GROUP:
+                return getGraphBytes(field.getTypeName(), path, footprint);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return deepest nesting of embedded messages below and including the message
+     */
+    private int getDepth(String typeName, Set<String> path, Footprint footprint)
+    {
+        DescriptorProto message = messages.get(typeName);
+        if (message == null)
+        {
+            return 1;
+        }
+        if (!path.add(typeName))
+        {
+            footprint.recursive = true;
+            return 0;
+        }
+
+        Map<Integer, DescriptorProto> mapEntries = FieldUtil.getMapEntries(typeName, message);
+        int depth = 0;
+        for (FieldDescriptorProto field : getFields(typeName))
+        {
+            FieldDescriptorProto value = mapEntries.containsKey(field.getNumber())
+                    ? FieldUtil.getMapEntryField(mapEntries.get(field.getNumber()), 2)
+                    : field;
+            if (FieldUtil.isMessage(value))
+            {
+                depth = Math.max(depth, getDepth(value.getTypeName(), path, footprint));
+            }
+        }
+        path.remove(typeName);
+        return depth + 1;
+    }
+
+    private static String quote(String value)
+    {
+        if (value == null)
+        {
+            return "null";
+        }
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
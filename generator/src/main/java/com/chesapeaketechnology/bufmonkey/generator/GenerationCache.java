@@ -0,0 +1,383 @@
+package com.chesapeaketechnology.bufmonkey.generator;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of generated files that allows unchanged proto files to be served without
+ * generating them again. Every proto file is keyed by a SHA-256 hash of its {@link FileDescriptorProto},
+ * the descriptors of its transitive dependencies, the output changing generator options and the
+ * generator build. The generated files of a key are stored as a serialized {@link CodeGeneratorResponse}
+ * so a hit returns exactly the same bytes.
+ * <p>
+ * A manifest records the current key and last use of every proto file per set of options. Entries
+ * are evicted once the key of their proto file changes, and manifest records that have not been used
+ * for the configured number of days are removed together with their entries. protoc runs that share
+ * the directory save under a lock file and merge their records into the manifest on disk, and entries
+ * written within {@link #ENTRY_GRACE_MILLIS} are kept, so that runs do not evict each other's entries.
+ *
+ * @since 0.2.0
+ */
+public class GenerationCache
+{
+    /**
+     * Name of the manifest file in the cache directory
+     */
+    static final String MANIFEST = "manifest.properties";
+
+    /**
+     * Name of the lock file that protoc runs sharing the cache directory save the manifest under
+     */
+    static final String LOCK = "manifest.lock";
+
+    /**
+     * File extension of cache entries
+     */
+    static final String ENTRY_EXTENSION = ".pb";
+
+    /**
+     * Time for which an entry that no record references is kept, since a protoc run sharing the cache
+     * directory may have written it without having saved its manifest yet
+     */
+    static final long ENTRY_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+
+    private final GeneratorOptions options;
+
+    /**
+     * Hash of the options and generator build that is part of every key
+     */
+    private final String optionsHash;
+
+    /**
+     * Manifest records of the form "optionsHash/protoFileName" = "key lastUsedMillis"
+     */
+    private final Properties manifest = new Properties();
+
+    private final long now = System.currentTimeMillis();
+
+    private GenerationCache(Path directory, GeneratorOptions options)
+    {
+        this.directory = directory;
+        this.options = options;
+        this.optionsHash = hash(options.getCacheKey() + "|" + getGeneratorVersion()).substring(0, 16);
+    }
+
+    /**
+     * Opens the cache in the provided directory, creating the directory if needed
+     *
+     * @param directory Path of the cache directory
+     * @param options   {@link GeneratorOptions} of the current request
+     * @return {@link GenerationCache}
+     * @throws IOException if the directory or manifest can not be read
+     */
+    public static GenerationCache open(Path directory, GeneratorOptions options) throws IOException
+    {
+        GenerationCache cache = new GenerationCache(directory, options);
+        Files.createDirectories(directory);
+        loadManifest(directory, cache.manifest);
+        return cache;
+    }
+
+    /**
+     * Loads the manifest of the cache directory into the provided properties. A manifest that can not
+     * be parsed is treated as empty, which drops its records and evicts their entries.
+     */
+    private static void loadManifest(Path directory, Properties manifest) throws IOException
+    {
+        Path manifestFile = directory.resolve(MANIFEST);
+        if (!Files.exists(manifestFile))
+        {
+            return;
+        }
+
+        try (InputStream input = Files.newInputStream(manifestFile))
+        {
+            manifest.load(input);
+        } catch (IllegalArgumentException ex)
+        {
+            System.err.println("Ignoring the corrupt cache manifest " + manifestFile + " due to: " + ex.getMessage());
+            manifest.clear();
+        }
+    }
+
+    /**
+     * Computes the cache key of a proto file from its descriptor, its transitive dependencies and
+     * the generator options
+     *
+     * @param file        {@link FileDescriptorProto} proto file
+     * @param filesByName Map of all proto files of the request by name
+     * @return hex encoded key
+     */
+    public String computeKey(FileDescriptorProto file, Map<String, FileDescriptorProto> filesByName)
+    {
+        MessageDigest digest = newDigest();
+        digest.update(optionsHash.getBytes(StandardCharsets.UTF_8));
+        digest.update(file.toByteArray());
+
+        // dependencies are hashed in name order so the key does not depend on import order
+        Set<String> dependencies = new TreeSet<>();
+        Deque<String> pending = new ArrayDeque<>(file.getDependencyList());
+        while (!pending.isEmpty())
+        {
+            String name = pending.pop();
+            if (dependencies.add(name) && filesByName.containsKey(name))
+            {
+                pending.addAll(filesByName.get(name).getDependencyList());
+            }
+        }
+        for (String name : dependencies)
+        {
+            FileDescriptorProto dependency = filesByName.get(name);
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            if (dependency != null)
+            {
+                digest.update(dependency.toByteArray());
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the cache key of proto files that are generated together into one bundle. The key of
+     * a single file is the key of {@link #computeKey(FileDescriptorProto, Map)}.
+     *
+     * @param files       List of {@link FileDescriptorProto} generated together
+     * @param filesByName Map of all proto files of the request by name
+     * @return hex encoded key
+     */
+    public String computeKey(List<FileDescriptorProto> files, Map<String, FileDescriptorProto> filesByName)
+    {
+        if (files.size() == 1)
+        {
+            return computeKey(files.get(0), filesByName);
+        }
+
+        StringBuilder keys = new StringBuilder();
+        for (FileDescriptorProto file : files)
+        {
+            keys.append(computeKey(file, filesByName));
+        }
+        return hash(keys.toString());
+    }
+
+    /**
+     * Returns the generated files of a proto file if they are cached for the provided key
+     *
+     * @param fileName String proto file name
+     * @param key      String key computed with {@link #computeKey(FileDescriptorProto, Map)}
+     * @return List of generated files, or null on a cache miss
+     */
+    public List<CodeGeneratorResponse.File> get(String fileName, String key)
+    {
+        Path entry = directory.resolve(key + ENTRY_EXTENSION);
+        if (!Files.exists(entry))
+        {
+            return null;
+        }
+
+        try (InputStream input = Files.newInputStream(entry))
+        {
+            List<CodeGeneratorResponse.File> files = CodeGeneratorResponse.parseFrom(input).getFileList();
+            record(fileName, key);
+            return files;
+        } catch (IOException ex)
+        {
+            System.err.println("Unable to read cache entry " + entry + " due to: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the generated files of a proto file under the provided key
+     *
+     * @param fileName String proto file name
+     * @param key      String key computed with {@link #computeKey(FileDescriptorProto, Map)}
+     * @param files    List of generated files
+     */
+    public void put(String fileName, String key, List<CodeGeneratorResponse.File> files)
+    {
+        Path entry = directory.resolve(key + ENTRY_EXTENSION);
+        try
+        {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp))
+            {
+                CodeGeneratorResponse.newBuilder().addAllFile(files).build().writeTo(output);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            record(fileName, key);
+        } catch (IOException ex)
+        {
+            System.err.println("Unable to write cache entry " + entry + " due to: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Evicts stale entries and writes the manifest. The records are merged with the manifest on disk
+     * under the {@link #LOCK} file first, keeping the most recent use of every proto file, so that
+     * records saved by other protoc runs since {@link #open(Path, GeneratorOptions)} are not lost.
+     * Records that have not been used within the maximum age or can not be parsed are dropped, and
+     * every entry that is not referenced by a record and is older than {@link #ENTRY_GRACE_MILLIS}
+     * is deleted.
+     */
+    public void save()
+    {
+        long maxAge = TimeUnit.DAYS.toMillis(options.getCacheMaxAge());
+        try (FileChannel channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock())
+        {
+            Properties saved = new Properties();
+            loadManifest(directory, saved);
+            for (String name : saved.stringPropertyNames())
+            {
+                String record = saved.getProperty(name);
+                String current = manifest.getProperty(name);
+                if (current == null || getLastUsed(record) > getLastUsed(current))
+                {
+                    manifest.setProperty(name, record);
+                }
+            }
+
+            Set<String> referenced = new HashSet<>();
+            for (String name : manifest.stringPropertyNames())
+            {
+                String record = manifest.getProperty(name);
+                long lastUsed = getLastUsed(record);
+                if (lastUsed < 0 || now - lastUsed > maxAge)
+                {
+                    manifest.remove(name);
+                } else
+                {
+                    referenced.add(record.substring(0, record.indexOf(' ')) + ENTRY_EXTENSION);
+                }
+            }
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + ENTRY_EXTENSION))
+            {
+                for (Path entry : entries)
+                {
+                    if (!referenced.contains(entry.getFileName().toString())
+                            && now - Files.getLastModifiedTime(entry).toMillis() > ENTRY_GRACE_MILLIS)
+                    {
+                        Files.deleteIfExists(entry);
+                    }
+                }
+            }
+
+            Path temp = Files.createTempFile(directory, "manifest", ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp))
+            {
+                manifest.store(output, "BufMonkey generation cache");
+            }
+            Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex)
+        {
+            System.err.println("Unable to save the generation cache due to: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @return time of the last use of a manifest record of the form "key lastUsedMillis", or -1 if the
+     * record is corrupt
+     */
+    private static long getLastUsed(String record)
+    {
+        String[] parts = record.split(" ");
+        if (parts.length != 2)
+        {
+            return -1;
+        }
+
+        try
+        {
+            return Long.parseLong(parts[1]);
+        } catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Records the current key and use of a proto file. The entry of a previous key is no longer
+     * referenced and is evicted by {@link #save()}.
+     */
+    private synchronized void record(String fileName, String key)
+    {
+        manifest.setProperty(optionsHash + "/" + fileName, key + " " + now);
+    }
+
+    /**
+     * Identifies the generator build so that entries generated by a different build are not served.
+     * Uses the implementation version and the modification time of the plugin jar (or classes directory).
+     */
+    private static String getGeneratorVersion()
+    {
+        String version = String.valueOf(GenerationCache.class.getPackage().getImplementationVersion());
+        try
+        {
+            CodeSource codeSource = GenerationCache.class.getProtectionDomain().getCodeSource();
+            if (codeSource != null)
+            {
+                version += "@" + new File(codeSource.getLocation().toURI()).lastModified();
+            }
+        } catch (URISyntaxException | SecurityException ex)
+        {
+            // the implementation version alone identifies release builds
+        }
+        return version;
+    }
+
+    private static String hash(String value)
+    {
+        return toHex(newDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
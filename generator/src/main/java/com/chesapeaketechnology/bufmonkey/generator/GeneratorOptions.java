@@ -0,0 +1,607 @@
+package com.chesapeaketechnology.bufmonkey.generator;
+
+import com.google.protobuf.DescriptorProtos;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Options parsed from the generator parameters that are passed to the plugin in front of the
+ * output directory, e.g. "--bufmonkey_out=rootModule=MyBarrel,specializedDecode:./out"
+ *
+ * @since 0.2.0
+ */
+public final class GeneratorOptions
+{
+    /**
+     * Allows for configuration of the root module for files to be
+     * generated under. This is useful for code generation usage
+     * in monkey barrels as barrels require all class files to be located
+     * under the barrel module defined in the manifest.xml file.
+     */
+    static final String ROOT_MODULE = "rootModule";
+
+    /**
+     * Enables generation of a decode function per message that reads each field with its
+     * known type instead of going through the string based ProtoDecoder at runtime.
+     */
+    static final String SPECIALIZED_DECODE = "specializedDecode";
+
+    /**
+     * Enables generation of lazy message classes that only index the offsets of their fields when
+     * decoded and decode each field on first access through its generated accessor.
+     */
+    static final String LAZY_DECODE = "lazyDecode";
+
+    /**
+     * Keeps the encoded bytes of fields that are not known to a message in a single byte array member
+     * and writes them back out unchanged when the message is encoded
+     */
+    static final String PRESERVE_UNKNOWN_FIELDS = "preserveUnknownFields";
+
+    /**
+     * Code generation profile, either {@link #PROFILE_SIZE} or {@link #PROFILE_SPEED}
+     */
+    static final String PROFILE = "profile";
+
+    /**
+     * Profile that keeps the generated code small: no print functions and decoding through the shared,
+     * table driven ProtoDecoder. Takes precedence over {@link #SPECIALIZED_DECODE}.
+     */
+    static final String PROFILE_SIZE = "size";
+
+    /**
+     * Profile that generates fully specialized code per field, which implies {@link #SPECIALIZED_DECODE}
+     */
+    static final String PROFILE_SPEED = "speed";
+
+    /**
+     * Bundles the generated classes into one file per proto package ({@link #BUNDLE_PACKAGE}) or per
+     * proto file ({@link #BUNDLE_FILE}) named after the package path, instead of one file per message
+     * and top level enum
+     */
+    static final String BUNDLE = "bundle";
+
+    /**
+     * Bundle mode with one file per package, ie. "my/pkg.mc" for the package "my.pkg"
+     */
+    static final String BUNDLE_PACKAGE = "package";
+
+    /**
+     * Bundle mode with one file per proto file, ie. "my/pkg/Status.mc" for "Status.proto" in "my.pkg"
+     */
+    static final String BUNDLE_FILE = "file";
+
+    /**
+     * Adds a report of the estimated code size of every message with each profile to the output
+     */
+    static final String CODE_SIZE_REPORT = "codeSizeReport";
+
+    /**
+     * Adds a JSON report of the estimated heap, descriptor and code footprint of every message to the output
+     */
+    static final String FOOTPRINT_REPORT = "footprintReport";
+
+    /**
+     * Estimated heap bytes of a fully set message graph, ie. "footprintBudget=8192", above which
+     * generation fails. See {@link FootprintReport}.
+     */
+    static final String FOOTPRINT_BUDGET = "footprintBudget";
+
+    /**
+     * Generates code that reports the decoded fields, bytes, nesting depth, time and memory of every
+     * decode and encode to BufMonkey.metrics. Without it no instrumentation code is generated.
+     */
+    static final String INSTRUMENTATION = "instrumentation";
+
+    /**
+     * Hides the fields behind accessors whose setters mark the fields they change in a bitmask, so that
+     * encodeDelta writes only the fields changed since the last encode. Without it encodeDelta writes
+     * every set field.
+     */
+    static final String DIRTY_TRACKING = "dirtyTracking";
+
+    /**
+     * Minimum Connect IQ SDK level of the target, ie. "minSdkVersion=2.4.0". Fixed width values are
+     * read with ByteArray.decodeNumber from {@link #NATIVE_NUMBERS_SDK} on and one byte at a time
+     * below it. Defaults to the level of the {@link #MANIFEST} or, without one, to native reads.
+     */
+    static final String MIN_SDK_VERSION = "minSdkVersion";
+
+    /**
+     * Path of the manifest.xml of the app or barrel the classes are generated for, whose
+     * minSdkVersion attribute is used when {@link #MIN_SDK_VERSION} is not set
+     */
+    static final String MANIFEST = "manifest";
+
+    /**
+     * First SDK level that provides ByteArray.decodeNumber, which the native fixed width reads use.
+     * Matches BufMonkey.NATIVE_NUMBERS_SDK of the runtime.
+     */
+    static final String NATIVE_NUMBERS_SDK = "3.0.0";
+
+    /**
+     * Number of threads used to generate messages in parallel. Defaults to the number of
+     * available processors, a value of 1 generates all messages on the calling thread.
+     */
+    static final String THREADS = "threads";
+
+    /**
+     * Directory of the incremental generation cache. Files whose descriptor, dependencies and
+     * options did not change since the last run are served from the cache instead of being generated.
+     */
+    static final String CACHE_DIR = "cacheDir";
+
+    /**
+     * Number of days after which cache entries of proto files that are no longer generated are evicted
+     */
+    static final String CACHE_MAX_AGE = "cacheMaxAge";
+
+    /**
+     * Default value of {@link #CACHE_MAX_AGE}
+     */
+    static final int DEFAULT_CACHE_MAX_AGE = 30;
+
+    /**
+     * Prefix of the field projection parameters, ie. "projection.my.pkg.Status=battery+heartRate".
+     * Only the listed fields of the message get storage and decode code, every other field is skipped
+     * when decoding. The message is identified by its fully qualified or its simple name.
+     */
+    static final String PROJECTION_PREFIX = "projection.";
+
+    /**
+     * Separator of the field names in a projection parameter value
+     */
+    static final String PROJECTION_SEPARATOR = "+";
+
+    /**
+     * Parameters that do not change the generated output and are therefore not part of the cache key
+     */
+    private static final List<String> NON_OUTPUT_PARAMETERS = Arrays.asList(THREADS, CACHE_DIR, CACHE_MAX_AGE,
+            FOOTPRINT_REPORT, FOOTPRINT_BUDGET);
+
+    private final Map<String, String> parameters;
+
+    private final String rootModule;
+
+    private final String profile;
+
+    private final String bundle;
+
+    private final boolean codeSizeReport;
+
+    private final boolean footprintReport;
+
+    private final int footprintBudget;
+
+    private final boolean specializedDecode;
+
+    private final boolean lazyDecode;
+
+    private final boolean preserveUnknownFields;
+
+    private final String minSdkVersion;
+
+    private final boolean instrumentation;
+
+    private final boolean dirtyTracking;
+
+    private final int threads;
+
+    private final Path cacheDir;
+
+    private final int cacheMaxAge;
+
+    private final String cacheKey;
+
+    /**
+     * Projected field names by message name
+     */
+    private final Map<String, Set<String>> projections = new HashMap<>();
+
+    private GeneratorOptions(Map<String, String> generatorParameters)
+    {
+        parameters = Collections.unmodifiableMap(new HashMap<>(generatorParameters));
+        rootModule = generatorParameters.get(ROOT_MODULE);
+        profile = generatorParameters.get(PROFILE);
+        if (profile != null && !PROFILE_SIZE.equals(profile) && !PROFILE_SPEED.equals(profile))
+        {
+            throw new IllegalArgumentException("Unknown profile: " + profile + ", expected "
+                    + PROFILE_SIZE + " or " + PROFILE_SPEED);
+        }
+        bundle = generatorParameters.get(BUNDLE);
+        if (bundle != null && !BUNDLE_PACKAGE.equals(bundle) && !BUNDLE_FILE.equals(bundle))
+        {
+            throw new IllegalArgumentException("Unknown bundle: " + bundle + ", expected "
+                    + BUNDLE_PACKAGE + " or " + BUNDLE_FILE);
+        }
+        codeSizeReport = isEnabled(generatorParameters, CODE_SIZE_REPORT);
+        footprintReport = isEnabled(generatorParameters, FOOTPRINT_REPORT);
+        footprintBudget = generatorParameters.containsKey(FOOTPRINT_BUDGET)
+                ? Integer.parseInt(generatorParameters.get(FOOTPRINT_BUDGET))
+                : 0;
+        specializedDecode = PROFILE_SPEED.equals(profile)
+                || (!PROFILE_SIZE.equals(profile) && isEnabled(generatorParameters, SPECIALIZED_DECODE));
+        lazyDecode = isEnabled(generatorParameters, LAZY_DECODE);
+        preserveUnknownFields = isEnabled(generatorParameters, PRESERVE_UNKNOWN_FIELDS);
+        minSdkVersion = generatorParameters.containsKey(MIN_SDK_VERSION)
+                ? generatorParameters.get(MIN_SDK_VERSION)
+                : generatorParameters.containsKey(MANIFEST) ? readMinSdkVersion(Paths.get(generatorParameters.get(MANIFEST))) : null;
+        if (minSdkVersion != null && !minSdkVersion.matches("\\d+(\\.\\d+)*"))
+        {
+            throw new IllegalArgumentException("Invalid " + MIN_SDK_VERSION + ": " + minSdkVersion);
+        }
+        instrumentation = isEnabled(generatorParameters, INSTRUMENTATION);
+        dirtyTracking = isEnabled(generatorParameters, DIRTY_TRACKING);
+        threads = generatorParameters.containsKey(THREADS)
+                ? Math.max(1, Integer.parseInt(generatorParameters.get(THREADS)))
+                : Runtime.getRuntime().availableProcessors();
+        cacheDir = generatorParameters.containsKey(CACHE_DIR) ? Paths.get(generatorParameters.get(CACHE_DIR)) : null;
+        cacheMaxAge = generatorParameters.containsKey(CACHE_MAX_AGE)
+                ? Integer.parseInt(generatorParameters.get(CACHE_MAX_AGE))
+                : DEFAULT_CACHE_MAX_AGE;
+
+        for (Map.Entry<String, String> parameter : generatorParameters.entrySet())
+        {
+            if (parameter.getKey().startsWith(PROJECTION_PREFIX))
+            {
+                projections.put(parameter.getKey().substring(PROJECTION_PREFIX.length()),
+                        new HashSet<>(Arrays.asList(parameter.getValue().split(Pattern.quote(PROJECTION_SEPARATOR)))));
+            }
+        }
+
+        Map<String, String> outputParameters = new TreeMap<>(generatorParameters);
+        outputParameters.keySet().removeAll(NON_OUTPUT_PARAMETERS);
+        // the manifest only matters through the SDK level that is read from it
+        outputParameters.remove(MANIFEST);
+        if (minSdkVersion != null)
+        {
+            outputParameters.put(MIN_SDK_VERSION, minSdkVersion);
+        }
+        cacheKey = outputParameters.toString();
+    }
+
+    /**
+     * Parses the generator options from the generator parameters
+     *
+     * @param generatorParameters Map of generator parameters
+     * @return {@link GeneratorOptions}
+     */
+    public static GeneratorOptions fromParameters(Map<String, String> generatorParameters)
+    {
+        return new GeneratorOptions(generatorParameters);
+    }
+
+    /**
+     * Returns a copy of these options that generates code with the provided profile
+     *
+     * @param profile String {@link #PROFILE_SIZE} or {@link #PROFILE_SPEED}
+     * @return {@link GeneratorOptions}
+     */
+    public GeneratorOptions withProfile(String profile)
+    {
+        Map<String, String> profileParameters = new HashMap<>(parameters);
+        profileParameters.put(PROFILE, profile);
+        return new GeneratorOptions(profileParameters);
+    }
+
+    /**
+     * Reads the minSdkVersion attribute of the application or barrel element of a Connect IQ manifest
+     *
+     * @param manifest Path of the manifest.xml
+     * @return String SDK level, or null if the manifest does not declare one
+     */
+    static String readMinSdkVersion(Path manifest)
+    {
+        try
+        {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document document = factory.newDocumentBuilder().parse(manifest.toFile());
+            for (String element : Arrays.asList("application", "barrel"))
+            {
+                NodeList nodes = document.getElementsByTagNameNS("*", element);
+                if (nodes.getLength() > 0 && ((Element) nodes.item(0)).hasAttribute(MIN_SDK_VERSION))
+                {
+                    return ((Element) nodes.item(0)).getAttribute(MIN_SDK_VERSION);
+                }
+            }
+            return null;
+        } catch (IOException | ParserConfigurationException | SAXException e)
+        {
+            throw new IllegalArgumentException("Unable to read " + MIN_SDK_VERSION + " from " + manifest, e);
+        }
+    }
+
+    /**
+     * Compares two dotted SDK levels, missing parts count as 0
+     *
+     * @return negative, zero or positive like {@link Comparable#compareTo}
+     */
+    static int compareVersions(String left, String right)
+    {
+        String[] leftParts = left.split("\\.");
+        String[] rightParts = right.split("\\.");
+        for (int i = 0; i < Math.max(leftParts.length, rightParts.length); i++)
+        {
+            int compared = Integer.compare(i < leftParts.length ? Integer.parseInt(leftParts[i]) : 0,
+                    i < rightParts.length ? Integer.parseInt(rightParts[i]) : 0);
+            if (compared != 0)
+            {
+                return compared;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks whether a flag style generator parameter is enabled. Flags are enabled when they are
+     * present without a value (ie. "flag") or with any value other than "false" (ie. "flag=true").
+     *
+     * @param generatorParameters Map of generator parameters
+     * @param name                String parameter name
+     * @return true if the parameter is enabled
+     */
+    static boolean isEnabled(Map<String, String> generatorParameters, String name)
+    {
+        return generatorParameters.containsKey(name) && !"false".equalsIgnoreCase(generatorParameters.get(name));
+    }
+
+    /**
+     * @return fully qualified name of the BufMonkey runtime module that generated files import
+     */
+    public String getRuntimeModule()
+    {
+        return rootModule == null ? "BufMonkey" : rootModule + "." + "BufMonkey";
+    }
+
+    /**
+     * @return true if specialized decode functions are generated
+     */
+    public boolean isSpecializedDecode()
+    {
+        return specializedDecode;
+    }
+
+    /**
+     * @return true if the bytes of unknown fields are kept and encoded again
+     */
+    public boolean isPreserveUnknownFields()
+    {
+        return preserveUnknownFields;
+    }
+
+    /**
+     * @return the minimum SDK level of the target, or null if none is configured
+     */
+    public String getMinSdkVersion()
+    {
+        return minSdkVersion;
+    }
+
+    /**
+     * @return true if fixed width values are read with ByteArray.decodeNumber, which is the case
+     * unless the minimum SDK level is below {@link #NATIVE_NUMBERS_SDK}
+     */
+    public boolean isNativeNumbers()
+    {
+        return minSdkVersion == null || compareVersions(minSdkVersion, NATIVE_NUMBERS_SDK) >= 0;
+    }
+
+    /**
+     * @return true if decode and encode instrumentation code is generated
+     */
+    public boolean isInstrumentation()
+    {
+        return instrumentation;
+    }
+
+    /**
+     * @return true if setters mark the fields they change for encodeDelta
+     */
+    public boolean isDirtyTracking()
+    {
+        return dirtyTracking;
+    }
+
+    /**
+     * @return the code generation profile, or null if none is configured
+     */
+    public String getProfile()
+    {
+        return profile;
+    }
+
+    /**
+     * @return true if print functions are generated, which the size profile leaves out
+     */
+    public boolean isPrintEnabled()
+    {
+        return !PROFILE_SIZE.equals(profile);
+    }
+
+    /**
+     * @return bundle mode, either {@link #BUNDLE_PACKAGE}, {@link #BUNDLE_FILE} or null for one file per
+     * message and top level enum
+     */
+    public String getBundle()
+    {
+        return bundle;
+    }
+
+    /**
+     * @return true if the code size report is added to the output
+     */
+    public boolean isCodeSizeReport()
+    {
+        return codeSizeReport;
+    }
+
+    /**
+     * @return true if the footprint report is added to the output
+     */
+    public boolean isFootprintReport()
+    {
+        return footprintReport;
+    }
+
+    /**
+     * @return estimated heap bytes a message graph may take up, or 0 without a budget
+     */
+    public int getFootprintBudget()
+    {
+        return footprintBudget;
+    }
+
+    /**
+     * @return true if lazy message classes are generated
+     */
+    public boolean isLazyDecode()
+    {
+        return lazyDecode;
+    }
+
+    /**
+     * @return number of threads used for generation
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return directory of the generation cache, or null if caching is disabled
+     */
+    public Path getCacheDir()
+    {
+        return cacheDir;
+    }
+
+    /**
+     * @return number of days after which unused cache entries are evicted
+     */
+    public int getCacheMaxAge()
+    {
+        return cacheMaxAge;
+    }
+
+    /**
+     * @return canonical form of the parameters that change the generated output, used in cache keys
+     */
+    public String getCacheKey()
+    {
+        return cacheKey;
+    }
+
+    /**
+     * Returns the fields of a message that code is generated for. Without a projection for the
+     * message all fields are returned.
+     *
+     * @param packageName String package of the file declaring the message
+     * @param message     {@link DescriptorProtos.DescriptorProto} message
+     * @return List of projected fields in declaration order
+     */
+    public List<DescriptorProtos.FieldDescriptorProto> getProjectedFields(String packageName,
+                                                                          DescriptorProtos.DescriptorProto message)
+    {
+        String fullName = packageName == null || packageName.isEmpty() ? message.getName() : packageName + "." + message.getName();
+        Set<String> projection = projections.get(fullName);
+        if (projection == null)
+        {
+            projection = projections.get(message.getName());
+        }
+        if (projection == null)
+        {
+            return message.getFieldList();
+        }
+
+        Set<String> fieldNames = projection;
+        return Collections.unmodifiableList(message.getFieldList().stream()
+                .filter(field -> fieldNames.contains(field.getName()))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Checks that every projection names a message of the request, by its qualified or simple name, and
+     * only fields the message declares, so that a typo does not silently generate a message without them
+     *
+     * @param files List of {@link DescriptorProtos.FileDescriptorProto} of the request
+     * @return error message listing the unknown messages and fields, or null if all of them exist
+     */
+    public String checkProjections(List<DescriptorProtos.FileDescriptorProto> files)
+    {
+        if (projections.isEmpty())
+        {
+            return null;
+        }
+
+        Map<String, List<DescriptorProtos.DescriptorProto>> messages = new HashMap<>();
+        for (DescriptorProtos.FileDescriptorProto file : files)
+        {
+            addMessages(file.getPackage(), file.getMessageTypeList(), messages);
+        }
+
+        StringBuilder error = new StringBuilder();
+        for (Map.Entry<String, Set<String>> projection : new TreeMap<>(projections).entrySet())
+        {
+            List<DescriptorProtos.DescriptorProto> candidates = messages.get(projection.getKey());
+            if (candidates == null)
+            {
+                error.append(error.length() == 0 ? "" : System.lineSeparator())
+                        .append("Unknown message ").append(projection.getKey()).append(" in ")
+                        .append(PROJECTION_PREFIX).append(projection.getKey());
+                continue;
+            }
+            for (String fieldName : new TreeSet<>(projection.getValue()))
+            {
+                boolean declared = candidates.stream()
+                        .anyMatch(message -> message.getFieldList().stream().anyMatch(field -> field.getName().equals(fieldName)));
+                if (!declared)
+                {
+                    error.append(error.length() == 0 ? "" : System.lineSeparator())
+                            .append("Unknown field ").append(fieldName).append(" of message ").append(projection.getKey())
+                            .append(" in ").append(PROJECTION_PREFIX).append(projection.getKey());
+                }
+            }
+        }
+        return error.length() == 0 ? null : error.toString();
+    }
+
+    /**
+     * Adds the messages and their nested messages by the names {@link #getProjectedFields} looks them
+     * up with, the package qualified name and the simple name
+     */
+    private static void addMessages(String packageName, List<DescriptorProtos.DescriptorProto> messageTypes,
+                                    Map<String, List<DescriptorProtos.DescriptorProto>> messages)
+    {
+        for (DescriptorProtos.DescriptorProto message : messageTypes)
+        {
+            String fullName = packageName == null || packageName.isEmpty() ? message.getName() : packageName + "." + message.getName();
+            messages.computeIfAbsent(fullName, key -> new ArrayList<>()).add(message);
+            if (!fullName.equals(message.getName()))
+            {
+                messages.computeIfAbsent(message.getName(), key -> new ArrayList<>()).add(message);
+            }
+            addMessages(packageName, message.getNestedTypeList(), messages);
+        }
+    }
+}
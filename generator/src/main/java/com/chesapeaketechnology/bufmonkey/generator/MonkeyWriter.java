@@ -2,11 +2,10 @@ package com.chesapeaketechnology.bufmonkey.generator;
 
 import com.google.protobuf.DescriptorProtos;
 
-import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 /**
  * Class which contains methods for writing Monkey C code based on parsed Protobuf inputs
@@ -16,256 +15,1844 @@ import java.util.stream.Collectors;
 public class MonkeyWriter
 {
     /**
-     * The Writer object to write the code results
+     * A single indentation string
+     */
+    private static final String INDENT = "    ";
+
+    /**
+     * Line separator appended after every line
+     */
+    private static final String NEW_LINE = System.lineSeparator();
+
+    /**
+     * Precomputed indentation strings by indentation level. Deeper levels are built on demand.
+     */
+    private static final String[] INDENTS = new String[16];
+
+    /**
+     * Number of fields that are tracked per dirty word. The sign bit is left out so that every mask is
+     * a positive Number literal.
+     */
+    private static final int DIRTY_BITS = 31;
+
+    static
+    {
+        INDENTS[0] = "";
+        for (int i = 1; i < INDENTS.length; i++)
+        {
+            INDENTS[i] = INDENTS[i - 1] + INDENT;
+        }
+    }
+
+    /**
+     * The append-only builder that holds the code results
+     */
+    private final StringBuilder builder;
+
+    /**
+     * The current indentation string value
+     */
+    private String currentIndentString = "";
+
+    /**
+     * The current indentation level
+     */
+    private int currentIndent = 0;
+
+    /**
+     * Oneof declarations of the message that is being written, by oneof index
+     */
+    private List<DescriptorProtos.OneofDescriptorProto> oneofDecls = Collections.emptyList();
+
+    /**
+     * Map entry messages of the map fields of the message that is being written, by field number
+     */
+    private Map<Integer, DescriptorProtos.DescriptorProto> mapEntries = Collections.emptyMap();
+
+    /**
+     * Whether the message that is being written keeps the bytes of unknown fields
+     */
+    private boolean preserveUnknownFields;
+
+    /**
+     * Whether fixed width values are read with ByteArray.decodeNumber, see GeneratorOptions.isNativeNumbers
+     */
+    private boolean nativeNumbers = true;
+
+    /**
+     * Whether the message that is being written reports its decode and encode work to BufMonkey.metrics
+     */
+    private boolean instrumentation;
+
+    /**
+     * Whether the setters of the message that is being written mark the fields they change for encodeDelta
+     */
+    private boolean dirtyTracking;
+
+    public MonkeyWriter()
+    {
+        this.builder = new StringBuilder(4096);
+    }
+
+    /**
+     * Sets the oneof declarations of the message that is being written. Members of a oneof share a
+     * single value member named after the oneof and a case member holding the field number of the
+     * member that is set.
+     *
+     * @param oneofDecls {@link List<com.google.protobuf.DescriptorProtos.OneofDescriptorProto>} oneof list
+     */
+    public void setOneofDecls(List<DescriptorProtos.OneofDescriptorProto> oneofDecls)
+    {
+        this.oneofDecls = oneofDecls;
+    }
+
+    /**
+     * Sets the map entry messages of the message that is being written. Map fields are stored in a
+     * single Dictionary, their entries are decoded and encoded without creating entry objects.
+     *
+     * @param mapEntries Map of map entry messages by field number, see FieldUtil.getMapEntries
+     */
+    public void setMapEntries(Map<Integer, DescriptorProtos.DescriptorProto> mapEntries)
+    {
+        this.mapEntries = mapEntries;
+    }
+
+    /**
+     * Sets whether the message that is being written keeps the bytes of unknown fields in its
+     * unknownFields member and writes them back out when it is encoded
+     *
+     * @param preserveUnknownFields boolean whether unknown fields are preserved
+     */
+    public void setPreserveUnknownFields(boolean preserveUnknownFields)
+    {
+        this.preserveUnknownFields = preserveUnknownFields;
+    }
+
+    /**
+     * Sets whether the message that is being written reads fixed width values with
+     * ByteArray.decodeNumber or with the Compat functions of ProtoReader for targets without it
+     *
+     * @param nativeNumbers boolean whether the target provides ByteArray.decodeNumber
+     */
+    public void setNativeNumbers(boolean nativeNumbers)
+    {
+        this.nativeNumbers = nativeNumbers;
+    }
+
+    /**
+     * Sets whether the message that is being written reports the fields, bytes, time and memory of its
+     * decodes and encodes to BufMonkey.metrics while metrics are enabled
+     *
+     * @param instrumentation boolean whether instrumentation code is written
+     */
+    public void setInstrumentation(boolean instrumentation)
+    {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Sets whether the fields of the message that is being written are hidden behind accessors whose
+     * setters mark the field in a dirty word, so that encodeDelta writes only the fields changed since
+     * the last encode
+     *
+     * @param dirtyTracking boolean whether dirty tracking code is written
+     */
+    public void setDirtyTracking(boolean dirtyTracking)
+    {
+        this.dirtyTracking = dirtyTracking;
+    }
+
+    /**
+     * Writes the members of dirty tracking: one dirty word per {@link #DIRTY_BITS} fields, holding a
+     * bit per field by its position in the field list, and the delta flag that limits computeSize and
+     * writeTo to the marked fields. Nothing is written without dirty tracking.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     */
+    public void writeDirtyFields(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        if (!dirtyTracking)
+        {
+            return;
+        }
+
+        for (int word = 0; word < getDirtyWords(fieldDescriptorProtos); word++)
+        {
+            writeWithIndentAndNewLine("hidden var bm_dirty" + word + " = 0;");
+        }
+        writeWithIndentAndNewLine("hidden var bm_delta = false;");
+    }
+
+    /**
+     * Writes the isDirty, clearDirty, bm_setDelta and bm_addDeltaPaths functions that ProtoEncoder uses to
+     * encode a delta. A field holding embedded messages is also dirty when one of its messages changed,
+     * so changes made through the setters of embedded messages reach the root. A singular embedded
+     * message that was not replaced itself is encoded as a delta of its own, its paths are added below
+     * the path of the field. Nothing is written without dirty tracking.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     */
+    public void writeDirtyFunctions(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        if (!dirtyTracking)
+        {
+            return;
+        }
+
+        final int words = getDirtyWords(fieldDescriptorProtos);
+        writeNewLine();
+        writeWithIndentAndNewLine("function isDirty() {", true);
+        final StringBuilder condition = new StringBuilder();
+        for (int word = 0; word < words; word++)
+        {
+            condition.append(word == 0 ? "" : " || ").append("self.bm_dirty").append(word).append(" != 0");
+        }
+        for (DescriptorProtos.FieldDescriptorProto field : fieldDescriptorProtos)
+        {
+            if (hasChildMessages(field))
+            {
+                condition.append(" || ").append(getChildDirtyCheck(field));
+            }
+        }
+        writeWithIndentAndNewLine("return " + (words == 0 ? "false" : condition.toString()) + ";");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function clearDirty() {", true);
+        writeClearDirtyWords(words);
+        for (DescriptorProtos.FieldDescriptorProto field : fieldDescriptorProtos)
+        {
+            if (!hasChildMessages(field))
+            {
+                continue;
+            }
+            if (FieldUtil.isRepeated(field))
+            {
+                writeWithIndentAndNewLine("BufMonkey.ProtoUtils.clearAllDirty(" + getStorage(field) + ");");
+            } else
+            {
+                writeWithIndentAndNewLine("if(" + getPresence(field) + ") {", true);
+                writeWithIndentAndNewLine(getStorage(field) + ".clearDirty();");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+            }
+        }
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function bm_setDelta(enabled) {", true);
+        writeWithIndentAndNewLine("self.bm_delta = enabled;");
+        for (DescriptorProtos.FieldDescriptorProto field : fieldDescriptorProtos)
+        {
+            // a replaced message is encoded completely, repeated and map fields are always resent as a whole
+            if (hasChildMessages(field) && !FieldUtil.isRepeated(field))
+            {
+                writeWithIndentAndNewLine("if(" + getPresence(field) + ") {", true);
+                writeWithIndentAndNewLine(getStorage(field) + ".bm_setDelta(enabled && " + getMarkCheck(fieldDescriptorProtos, field, "==") + ");");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+            }
+        }
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function bm_addDeltaPaths(paths, path) {", true);
+        writeWithIndentAndNewLine("var prefix = path == null ? \"\" : path + \".\";");
+        for (DescriptorProtos.FieldDescriptorProto field : fieldDescriptorProtos)
+        {
+            final String fieldPath = "prefix + \"" + field.getName() + "\"";
+            if (hasChildMessages(field) && !FieldUtil.isRepeated(field))
+            {
+                writeWithIndentAndNewLine("if(" + getMarkCheck(fieldDescriptorProtos, field, "!=") + ") {", true);
+                writeWithIndentAndNewLine("paths.add(" + fieldPath + ");");
+                decreaseIndent(1);
+                // messages of classes without dirty tracking are sent completely
+                writeWithIndentAndNewLine("} else if(" + getChildDirtyCheck(field) + " && !" + getStorage(field)
+                        + ".bm_addDeltaPaths(paths, " + fieldPath + ")) {", true);
+                writeWithIndentAndNewLine("paths.add(" + fieldPath + ");");
+            } else
+            {
+                writeWithIndentAndNewLine("if(" + getFieldDirtyCheck(fieldDescriptorProtos, field) + ") {", true);
+                writeWithIndentAndNewLine("paths.add(" + fieldPath + ");");
+            }
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+        }
+        writeWithIndentAndNewLine("return true;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * @return condition that is true if the unknown fields are encoded, which they are not in a delta
+     * because they never change
+     */
+    private String getUnknownFieldsCheck()
+    {
+        return (dirtyTracking ? "!self.bm_delta && " : "") + "self.unknownFields != null";
+    }
+
+    /**
+     * Writes the statements that reset every dirty word
+     */
+    private void writeClearDirtyWords(int words)
+    {
+        for (int word = 0; word < words; word++)
+        {
+            writeWithIndentAndNewLine("self.bm_dirty" + word + " = 0;");
+        }
+    }
+
+    /**
+     * @return number of dirty words that hold a bit for every field of the list
+     */
+    static int getDirtyWords(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        return (fieldDescriptorProtos.size() + DIRTY_BITS - 1) / DIRTY_BITS;
+    }
+
+    /**
+     * @return dirty word member that holds the bit of a field, ie. "self.bm_dirty0"
+     */
+    private static String getDirtyWord(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos,
+                                       DescriptorProtos.FieldDescriptorProto field)
+    {
+        return "self.bm_dirty" + (fieldDescriptorProtos.indexOf(field) / DIRTY_BITS);
+    }
+
+    /**
+     * @return mask of the bit of a field in its dirty word
+     */
+    private static int getDirtyMask(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos,
+                                    DescriptorProtos.FieldDescriptorProto field)
+    {
+        return 1 << (fieldDescriptorProtos.indexOf(field) % DIRTY_BITS);
+    }
+
+    /**
+     * @return start of the encode condition of a field that skips it in a delta unless it is dirty, or
+     * an empty String without dirty tracking
+     */
+    private String getDirtyCheck(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos,
+                                 DescriptorProtos.FieldDescriptorProto field)
+    {
+        return dirtyTracking ? "(!self.bm_delta || " + getFieldDirtyCheck(fieldDescriptorProtos, field) + ") && " : "";
+    }
+
+    /**
+     * @return condition that is true if the field was set through its setter or, for fields holding
+     * embedded messages, if one of its messages changed
+     */
+    private String getFieldDirtyCheck(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos,
+                                      DescriptorProtos.FieldDescriptorProto field)
+    {
+        return getMarkCheck(fieldDescriptorProtos, field, "!=")
+                + (hasChildMessages(field) ? " || " + getChildDirtyCheck(field) : "");
+    }
+
+    /**
+     * @param operator "!=" for a condition that is true if the field is marked, "==" for the opposite
+     * @return condition on the bit of the field in its dirty word
+     */
+    private static String getMarkCheck(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos,
+                                       DescriptorProtos.FieldDescriptorProto field, String operator)
+    {
+        return "(" + getDirtyWord(fieldDescriptorProtos, field) + " & " + getDirtyMask(fieldDescriptorProtos, field)
+                + ") " + operator + " 0";
+    }
+
+    /**
+     * @return true if the field holds embedded messages that track their own changes, which are message
+     * fields and maps with message values
+     */
+    private boolean hasChildMessages(DescriptorProtos.FieldDescriptorProto field)
+    {
+        return isMap(field) ? FieldUtil.isMessage(getMapEntryField(field, FieldUtil.MAP_VALUE)) : FieldUtil.isMessage(field);
+    }
+
+    /**
+     * @return condition that is true if an embedded message of the field changed since the last encode
+     */
+    private String getChildDirtyCheck(DescriptorProtos.FieldDescriptorProto field)
+    {
+        return FieldUtil.isRepeated(field)
+                ? "BufMonkey.ProtoUtils.isAnyDirty(" + getStorage(field) + ")"
+                : getPresence(field) + " && " + getStorage(field) + ".isDirty()";
+    }
+
+    /**
+     * Writes a single field out to the writer object
+     *
+     * @param fieldName String name of the field
+     * @param modifier  Access modifier
+     */
+    public void writeField(String fieldName, String modifier)
+    {
+        if (modifier != null)
+        {
+            writeWithIndent(modifier + " ");
+        }
+
+        writeWithNewLine("var " + fieldName + ";");
+    }
+
+    /**
+     * Writes the imports for the internal and external classes
+     *
+     * @param imports {@link List} String list of fully qualified import names
+     */
+    public void writeImports(List<String> imports)
+    {
+        imports.forEach(importName -> writeWithNewLine("using " + importName + ";"));
+        writeNewLine();
+    }
+
+    /**
+     * Writes a Monkey C namespace based on the provided package name. The namespace will reside under a root Generated
+     * namespace.
+     *
+     * @param packageName String package name read in by Protobuf
+     */
+    public void writeNamespace(String packageName)
+    {
+        String[] namespaces = packageName.split("\\.");
+        for (String namespace : namespaces)
+        {
+            if (!namespace.equals(""))
+            {
+                writeModuleName(namespace);
+            }
+        }
+    }
+
+    /**
+     * Writes a Monkey C opening class line and bracket
+     *
+     * @param className String name of the class
+     */
+    public void writeClassName(String className)
+    {
+        writeWithIndentAndNewLine("class " + className + " {", true);
+    }
+
+    /**
+     * Writes a Monkey C opening class line that exentds from a parent class
+     *
+     * @param className   String name of the class
+     * @param extendsFrom String name of the parent class
+     */
+    public void writeClassName(String className, String extendsFrom)
+    {
+        writeWithIndentAndNewLine("class " + className + " extends " + extendsFrom + " {", true);
+    }
+
+    /**
+     * Writes a single module line
+     *
+     * @param moduleName String module name
+     */
+    public void writeModuleName(String moduleName)
+    {
+        writeWithIndentAndNewLine("module " + moduleName + " {", true);
+    }
+
+    /**
+     * Writes a Monkey C constructor with parent initialization if provided.
+     *
+     * @param args List of String arguments for the constructor
+     * @param parent String parent name
+     * @param parentArgs List of String arguments to pass to the parent constructor
+     * @param body String constructor body
+     */
+    public void writeConstructor(List<String> args, String parent, List<String> parentArgs, String body)
+    {
+        writeNewLine();
+        writeWithIndent("function initialize(");
+        write(String.join(",", args));
+        writeWithNewLine(") {");
+        increaseIndent();
+
+        if (parent != null)
+        {
+            writeWithIndent(parent + ".initialize(");
+            write(String.join(",", parentArgs));
+            writeWithNewLine(");");
+        }
+
+        if (body != null)
+        {
+            write(body);
+        }
+
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the class level DESCRIPTOR constant which maps field numbers to integer type codes. The
+     * table is shared by all instances of the class and is used by the runtime ProtoDecoder and ProtoEncoder.
+     *
+     * @param fieldDescriptorList {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>}
+     */
+    public void writeDescriptor(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorList)
+    {
+        writeNewLine();
+        if (fieldDescriptorList.isEmpty())
+        {
+            writeWithIndentAndNewLine("const DESCRIPTOR = {};");
+            return;
+        }
+
+        writeWithIndentAndNewLine("const DESCRIPTOR = {", true);
+        for (int i = 0; i < fieldDescriptorList.size(); i++)
+        {
+            DescriptorProtos.FieldDescriptorProto field = fieldDescriptorList.get(i);
+            builder.append(currentIndentString).append(field.getNumber())
+                    .append(" => ").append(FieldUtil.getTypeCode(field) | (isMap(field) ? FieldUtil.FLAG_MAP : 0));
+            builder.append(i < fieldDescriptorList.size() - 1 ? "," : "").append(NEW_LINE);
+        }
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("};");
+    }
+
+    /**
+     * Writes the getDescriptor function which hands the class level DESCRIPTOR to the runtime
+     */
+    public void writeGetDescriptorFunction()
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function getDescriptor() {", true);
+        writeWithIndentAndNewLine("return DESCRIPTOR;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the isCompatNumbers function, which tells the runtime decoders that read values of the
+     * class themselves to read fixed width values with the Compat functions. Nothing is written for
+     * targets with ByteArray.decodeNumber.
+     */
+    public void writeCompatNumbersFunction()
+    {
+        if (nativeNumbers)
+        {
+            return;
+        }
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function isCompatNumbers() {", true);
+        writeWithIndentAndNewLine("return true;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes a print function for printing an object to the console
+     *
+     * @param className String name of the class containing the print method
+     * @param fields {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     * @param lazy   whether the class is a lazy message class whose fields are decoded first
+     */
+    public void writePrintFunction(String className, List<DescriptorProtos.FieldDescriptorProto> fields, boolean lazy)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function print() {", true);
+        if (lazy)
+        {
+            writeWithIndentAndNewLine("materializeAll();");
+        }
+
+        writeWithIndentAndNewLine("System.println(\"" + className + " {\");");
+        for (DescriptorProtos.FieldDescriptorProto field : fields)
+        {
+            final String value = field.hasOneofIndex() ? getStorage(field) : field.getName();
+            writeWithIndentAndNewLine("if(" + (field.hasOneofIndex() ? getPresence(field) : value + " != null") + ") {", true);
+            boolean isMessage = FieldUtil.isMessage(field) && !isMap(field);
+            writeWithIndentAndNewLine("System.println(\"     " + field.getName() + ": \" + "
+                    + value + (isMessage ? ".print()" : ".toString()") + ");");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+        }
+        writeWithIndentAndNewLine("System.println(\"}\");");
+
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the clear function which resets every field to null. Embedded messages and packed arrays are
+     * moved to their spare members first, so that the next decode can reuse them instead of allocating
+     * new ones.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     * @param lazy                  whether the class is a lazy message class whose index is dropped as well
+     */
+    public void writeClearFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos, boolean lazy)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function clear() {", true);
+        if (lazy)
+        {
+            writeWithIndentAndNewLine("clearIndex();");
+        }
+
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        {
+            final String field = getStorage(fieldDescriptorProto);
+            if (fieldDescriptorProto.hasOneofIndex())
+            {
+                // the shared members of a oneof are cleared once, at its first member
+                if (isFirstOneofMember(fieldDescriptorProtos, fieldDescriptorProto))
+                {
+                    writeWithIndentAndNewLine(field + " = null;");
+                    writeWithIndentAndNewLine(getCase(fieldDescriptorProto) + " = null;");
+                }
+            } else if (FieldUtil.isReusable(fieldDescriptorProto) && !isMap(fieldDescriptorProto))
+            {
+                // the spare of a field that is absent in this payload is kept for the next one
+                writeWithIndentAndNewLine("if(" + field + " != null) {", true);
+                writeWithIndentAndNewLine("self." + FieldUtil.getSpareName(fieldDescriptorProto) + " = " + field + ";");
+                writeWithIndentAndNewLine(field + " = null;");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+            } else
+            {
+                writeWithIndentAndNewLine(field + " = null;");
+            }
+        }
+        if (preserveUnknownFields)
+        {
+            writeWithIndentAndNewLine("self.unknownFields = null;");
+        }
+        if (dirtyTracking)
+        {
+            // a cleared or freshly decoded message has no local changes
+            writeClearDirtyWords(getDirtyWords(fieldDescriptorProtos));
+        }
+
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the addUnknownField function which appends the bytes of an unknown field to the
+     * unknownFields member, and the keepsUnknownFields function that tells the runtime they are kept.
+     * Nothing is written if unknown fields are not preserved.
+     */
+    public void writeAddUnknownFieldFunction()
+    {
+        if (!preserveUnknownFields)
+        {
+            return;
+        }
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function addUnknownField(buf, start, end) {", true);
+        writeWithIndentAndNewLine("self.unknownFields = BufMonkey.ProtoUtils.appendRange(self.unknownFields, buf, start, end);");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function keepsUnknownFields() {", true);
+        writeWithIndentAndNewLine("return true;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes a decodeFrom function that decodes with the shared ProtoDecoder like the one inherited
+     * from BufMonkeyType, but has the decoder hand unknown fields to addUnknownField and read fixed
+     * width values with the Compat functions where needed. Nothing is written if neither applies.
+     */
+    public void writeInterpretedDecodeFunction()
+    {
+        if (!preserveUnknownFields && nativeNumbers && !instrumentation)
+        {
+            return;
+        }
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function decodeFrom(reader) {", true);
+        writeMetricsBegin();
+        writeWithIndentAndNewLine("new BufMonkey.ProtoDecoder(getDescriptor())"
+                + (preserveUnknownFields ? ".keepUnknownFields()" : "")
+                + (nativeNumbers ? "" : ".compatNumbers()")
+                + (instrumentation ? ".withMetrics(metrics)" : "")
+                + ".decodeRange(reader.buf, reader.pos, reader.limit, self);");
+        writeWithIndentAndNewLine("reader.pos = reader.limit;");
+        // the decoder counts the fields into the metrics itself
+        writeMetricsEnd("0", "0");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes an encode function that reports the bytes, time and memory of encoding to BufMonkey.metrics
+     * around the inherited one. Nothing is written without instrumentation.
+     *
+     * @param parent String name of the parent class in the BufMonkey module
+     */
+    public void writeInstrumentedEncodeFunction(String parent)
+    {
+        if (!instrumentation)
+        {
+            return;
+        }
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function encode() {", true);
+        writeWithIndentAndNewLine("var metrics = BufMonkey.metrics;");
+        writeWithIndentAndNewLine("if(metrics == null) {", true);
+        writeWithIndentAndNewLine("return " + parent + ".encode();");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+        writeWithIndentAndNewLine("metrics.beginEncode();");
+        writeWithIndentAndNewLine("var buf = " + parent + ".encode();");
+        writeWithIndentAndNewLine("metrics.endEncode(buf.size());");
+        writeWithIndentAndNewLine("return buf;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Declares the "metrics" variable of an instrumented decodeFrom function and starts measuring
+     */
+    private void writeMetricsBegin()
+    {
+        if (!instrumentation)
+        {
+            return;
+        }
+        writeWithIndentAndNewLine("var metrics = BufMonkey.metrics;");
+        writeWithIndentAndNewLine("if(metrics != null) {", true);
+        writeWithIndentAndNewLine("metrics.beginDecode(reader);");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Ends measuring an instrumented decodeFrom function with the provided field counts
+     */
+    private void writeMetricsEnd(String decoded, String skipped)
+    {
+        if (!instrumentation)
+        {
+            return;
+        }
+        writeWithIndentAndNewLine("if(metrics != null) {", true);
+        writeWithIndentAndNewLine("metrics.endDecode(reader, " + decoded + ", " + skipped + ");");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the setValue function based on the field list. Values of positions that are not in the
+     * field list are ignored.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     */
+    public void writeSetValueFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function setValue(position, value) {", true);
+
+        writeWithIndentAndNewLine("switch(position) {", true);
+
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        {
+            final int position = fieldDescriptorProto.getNumber();
+            final String fieldName = fieldDescriptorProto.getName();
+            if (isMap(fieldDescriptorProto))
+            {
+                // map entries are handed to decodeMapEntry
+                continue;
+            }
+
+            writeWithIndentAndNewLine("case " + position + ":", true);
+            if (fieldDescriptorProto.hasOneofIndex())
+            {
+                writeOneofAssignment(fieldDescriptorProto, "value");
+            } else if (FieldUtil.isRepeated(fieldDescriptorProto))
+            {
+                writeWithIndentAndNewLine(fieldName + " = BufMonkey.ProtoUtils.appendValue(" + fieldName + ", value);");
+            } else
+            {
+                writeWithIndentAndNewLine(fieldName + " = value;");
+            }
+            writeWithIndentAndNewLine("break;");
+            decreaseIndent(1);
+        }
+
+        // values of unknown or unprojected fields are ignored
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the createMessage function which returns the instance of the embedded message type of a
+     * field to decode into. It is used by the runtime decoders to create embedded messages before decoding
+     * into them. A singular message that is already set is returned so that it is merged, otherwise the
+     * cleared spare of a previous decode is reused before a new instance is created. Nothing is written if
+     * the message has no embedded message fields.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     */
+    public void writeCreateMessageFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        if (fieldDescriptorProtos.stream().noneMatch(this::isEmbeddedMessage))
+        {
+            return;
+        }
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function createMessage(position) {", true);
+        writeWithIndentAndNewLine("var msg;");
+        writeWithIndentAndNewLine("switch(position) {", true);
+
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        {
+            if (isEmbeddedMessage(fieldDescriptorProto))
+            {
+                final String field = "self." + fieldDescriptorProto.getName();
+                final String spare = "self." + FieldUtil.getSpareName(fieldDescriptorProto);
+
+                writeWithIndentAndNewLine("case " + fieldDescriptorProto.getNumber() + ":", true);
+                if (fieldDescriptorProto.hasOneofIndex())
+                {
+                    // a oneof member that is already set is merged into
+                    writeWithIndentAndNewLine("msg = " + getPresence(fieldDescriptorProto) + " ? " + getStorage(fieldDescriptorProto) + " : null;");
+                } else if (FieldUtil.isRepeated(fieldDescriptorProto))
+                {
+                    writeWithIndentAndNewLine("msg = BufMonkey.ProtoUtils.reuseMessage(" + spare + ", "
+                            + field + " == null ? 0 : " + field + ".size());");
+                } else
+                {
+                    // a singular message that is already set is merged into
+                    writeWithIndentAndNewLine("msg = " + field + ";");
+                    writeWithIndentAndNewLine("if(msg == null && " + spare + " != null) {", true);
+                    writeWithIndentAndNewLine("msg = " + spare + ";");
+                    writeWithIndentAndNewLine("msg.clear();");
+                    decreaseIndent(1);
+                    writeWithIndentAndNewLine("}");
+                }
+                writeWithIndentAndNewLine("return msg != null ? msg : new " + FieldUtil.getMessageClassName(fieldDescriptorProto) + "();");
+                decreaseIndent(1);
+            }
+        }
+
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+        writeWithIndentAndNewLine("return null;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes a decodeFrom function that is specialized for the field list. Fields are matched with an integer
+     * switch on the wire tag and each value is read directly with the BufMonkey.ProtoReader function for
+     * its known type, so no headers are created and no type strings are compared at runtime. Embedded
+     * messages are decoded from the same reader by limiting it to their offset range instead of copying them.
+     * Spare embedded messages and packed arrays of a previous decode are reused when the shape matches.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     */
+    public void writeDecodeFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function decodeFrom(reader) {", true);
+        writeWithIndentAndNewLine("var tag;");
+        if (preserveUnknownFields)
+        {
+            writeWithIndentAndNewLine("var start;");
+        }
+        writeDecodeVariables(fieldDescriptorProtos);
+        if (instrumentation)
+        {
+            writeWithIndentAndNewLine("var fields = 0;");
+            writeWithIndentAndNewLine("var skipped = 0;");
+        }
+        writeMetricsBegin();
+
+        writeWithIndentAndNewLine("while(reader.pos < reader.limit) {", true);
+        if (preserveUnknownFields)
+        {
+            writeWithIndentAndNewLine("start = reader.pos;");
+        }
+        writeWithIndentAndNewLine("tag = reader.readVarint();");
+        if (instrumentation)
+        {
+            writeWithIndentAndNewLine("fields++;");
+        }
+        writeDecodeSwitch(fieldDescriptorProtos, preserveUnknownFields, instrumentation);
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+        writeMetricsEnd("fields - skipped", "skipped");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the functions of a lazy message class (see BufMonkey.LazyBufMonkeyType): getLazySlot which maps
+     * wire tags to index slots, getLazyIndexSize, and decodeLazyField which decodes a single field with the
+     * same cases as the specialized decodeFrom function.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     */
+    public void writeLazyFunctions(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function getLazySlot(tag) {", true);
+        writeWithIndentAndNewLine("switch(tag) {", true);
+        int[] slots = FieldUtil.getLazySlots(fieldDescriptorProtos);
+        int indexSize = 0;
+        for (int i = 0; i < fieldDescriptorProtos.size(); i++)
+        {
+            indexSize = Math.max(indexSize, slots[i] + 2);
+            DescriptorProtos.FieldDescriptorProto fieldDescriptorProto = fieldDescriptorProtos.get(i);
+            int wireType = FieldUtil.getWireType(fieldDescriptorProto);
+            if (wireType < 0)
+            {
+                continue;
+            }
+            if (FieldUtil.isPackable(fieldDescriptorProto))
+            {
+                writeWithIndentAndNewLine("case " + FieldUtil.makeTag(fieldDescriptorProto.getNumber(), FieldUtil.WIRETYPE_LENGTH_DELIMITED) + ":");
+            }
+            writeWithIndentAndNewLine("case " + FieldUtil.makeTag(fieldDescriptorProto.getNumber(), wireType) + ":", true);
+            writeWithIndentAndNewLine("return " + slots[i] + ";");
+            decreaseIndent(1);
+        }
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+        // unknown fields are not indexed, they are kept or skipped right away
+        writeWithIndentAndNewLine(preserveUnknownFields ? "return SLOT_UNKNOWN;" : "return -1;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function getLazyIndexSize() {", true);
+        writeWithIndentAndNewLine("return " + indexSize + ";");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+
+        writeNewLine();
+        writeWithIndentAndNewLine("function decodeLazyField(tag, reader) {", true);
+        writeDecodeVariables(fieldDescriptorProtos);
+        writeDecodeSwitch(fieldDescriptorProtos, false, false);
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+
+        if (instrumentation)
+        {
+            // only indexing is measured, fields are decoded later on first access
+            writeNewLine();
+            writeWithIndentAndNewLine("function decodeFrom(reader) {", true);
+            writeMetricsBegin();
+            writeWithIndentAndNewLine("LazyBufMonkeyType.decodeFrom(reader);");
+            writeMetricsEnd("0", "0");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+        }
+    }
+
+    /**
+     * Writes the get and set accessors. Lazy message classes get accessors for every field: a getter
+     * decodes its field on first access, a setter discards the indexed value so that it does not
+     * overwrite the new value. With dirty tracking every field is hidden as well and gets accessors,
+     * the setter marks the field for encodeDelta. Other classes only get accessors for oneof members,
+     * which have no member of their own. Setting a oneof member clears the other members of its oneof.
+     * Every oneof also gets a getter for its case, the field number of the member that is set.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     * @param lazy                  whether the class is a lazy message class
+     */
+    public void writeAccessors(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos, boolean lazy)
+    {
+        int[] slots = FieldUtil.getLazySlots(fieldDescriptorProtos);
+        for (int i = 0; i < fieldDescriptorProtos.size(); i++)
+        {
+            final DescriptorProtos.FieldDescriptorProto field = fieldDescriptorProtos.get(i);
+            if (!lazy && !dirtyTracking && !field.hasOneofIndex())
+            {
+                continue;
+            }
+
+            if (field.hasOneofIndex() && isFirstOneofMember(fieldDescriptorProtos, field))
+            {
+                writeNewLine();
+                writeWithIndentAndNewLine("function " + FieldUtil.getGetterName(FieldUtil.getCaseName(getOneofName(field))) + "() {", true);
+                if (lazy)
+                {
+                    writeWithIndentAndNewLine("materialize(" + slots[i] + ");");
+                }
+                writeWithIndentAndNewLine("return " + getCase(field) + ";");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+            }
+
+            writeNewLine();
+            writeWithIndentAndNewLine("function " + FieldUtil.getGetterName(field.getName()) + "() {", true);
+            if (lazy)
+            {
+                writeWithIndentAndNewLine("materialize(" + slots[i] + ");");
+            }
+            if (field.hasOneofIndex())
+            {
+                writeWithIndentAndNewLine("return " + getPresence(field) + " ? " + getStorage(field) + " : null;");
+            } else
+            {
+                writeWithIndentAndNewLine("return " + getStorage(field) + ";");
+            }
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+
+            writeSetter(fieldDescriptorProtos, field, lazy, slots[i]);
+        }
+    }
+
+    /**
+     * Writes the setter of a field, which marks the field for encodeDelta with dirty tracking. The
+     * setter of a oneof member marks every member of the oneof, so that the delta also clears the
+     * member that was set before.
+     */
+    private void writeSetter(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos,
+                             DescriptorProtos.FieldDescriptorProto field, boolean lazy, int slot)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function " + FieldUtil.getSetterName(field.getName()) + "(value) {", true);
+        if (lazy)
+        {
+            writeWithIndentAndNewLine("discard(" + slot + ");");
+        }
+        writeWithIndentAndNewLine(getStorage(field) + " = value;");
+        if (field.hasOneofIndex())
+        {
+            writeWithIndentAndNewLine(getCase(field) + " = value != null ? " + field.getNumber() + " : null;");
+        }
+        if (dirtyTracking)
+        {
+            Map<String, Integer> masks = new LinkedHashMap<>();
+            for (DescriptorProtos.FieldDescriptorProto member : fieldDescriptorProtos)
+            {
+                if (member == field || field.hasOneofIndex() && member.hasOneofIndex()
+                        && member.getOneofIndex() == field.getOneofIndex())
+                {
+                    masks.merge(getDirtyWord(fieldDescriptorProtos, member), getDirtyMask(fieldDescriptorProtos, member),
+                            (mask, other) -> mask | other);
+                }
+            }
+            masks.forEach((word, mask) -> writeWithIndentAndNewLine(word + " |= " + mask + ";"));
+        }
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the statements that store a value of a oneof member and its case
+     */
+    private void writeOneofAssignment(DescriptorProtos.FieldDescriptorProto field, String value)
+    {
+        writeWithIndentAndNewLine(getStorage(field) + " = " + value + ";");
+        writeWithIndentAndNewLine(getCase(field) + " = " + field.getNumber() + ";");
+    }
+
+    /**
+     * Writes the decode case body of a oneof member. An embedded message member that is already set
+     * is merged into, any other member is replaced.
+     */
+    private void writeOneofDecode(DescriptorProtos.FieldDescriptorProto field, String readCall)
+    {
+        if (!FieldUtil.isMessage(field))
+        {
+            writeOneofAssignment(field, readCall);
+            return;
+        }
+
+        writeWithIndentAndNewLine("limit = reader.pushLimit(reader.readVarint());");
+        writeWithIndentAndNewLine("if(" + getCase(field) + " != " + field.getNumber() + ") {", true);
+        writeOneofAssignment(field, "new " + FieldUtil.getMessageClassName(field) + "()");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+        writeWithIndentAndNewLine(getStorage(field) + ".decodeFrom(reader);");
+        writeWithIndentAndNewLine("reader.popLimit(limit);");
+    }
+
+    /**
+     * @return name of the oneof of a field, or null if the field is not a oneof member
+     */
+    private String getOneofName(DescriptorProtos.FieldDescriptorProto field)
+    {
+        return field.hasOneofIndex() ? oneofDecls.get(field.getOneofIndex()).getName() : null;
+    }
+
+    /**
+     * @return reference to the member holding the value of a field, which is shared by oneof members
+     */
+    private String getStorage(DescriptorProtos.FieldDescriptorProto field)
+    {
+        return "self." + (field.hasOneofIndex() ? getOneofName(field) : field.getName());
+    }
+
+    /**
+     * @return reference to the case member of the oneof of a field
+     */
+    private String getCase(DescriptorProtos.FieldDescriptorProto field)
+    {
+        return "self." + FieldUtil.getCaseName(getOneofName(field));
+    }
+
+    /**
+     * @return condition that is true if a field is set
+     */
+    private String getPresence(DescriptorProtos.FieldDescriptorProto field)
+    {
+        return field.hasOneofIndex()
+                ? getCase(field) + " == " + field.getNumber()
+                : getStorage(field) + " != null";
+    }
+
+    /**
+     * @return true if the field is the first member of its oneof in the field list
+     */
+    private static boolean isFirstOneofMember(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos,
+                                              DescriptorProtos.FieldDescriptorProto field)
+    {
+        for (DescriptorProtos.FieldDescriptorProto other : fieldDescriptorProtos)
+        {
+            if (other.hasOneofIndex() && other.getOneofIndex() == field.getOneofIndex())
+            {
+                return other == field;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the local variables used by the cases of {@link #writeDecodeSwitch(List, boolean)}
+     */
+    private void writeDecodeVariables(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    {
+        if (fieldDescriptorProtos.stream().anyMatch(field -> FieldUtil.isPackable(field) || FieldUtil.isMessage(field)))
+        {
+            writeWithIndentAndNewLine("var limit;");
+        }
+        if (fieldDescriptorProtos.stream().anyMatch(FieldUtil::isPackable))
+        {
+            writeWithIndentAndNewLine("var i;");
+        }
+        if (fieldDescriptorProtos.stream().anyMatch(field -> FieldUtil.isRepeated(field) && isEmbeddedMessage(field)))
+        {
+            writeWithIndentAndNewLine("var msg;");
+        }
+    }
+
+    /**
+     * Writes the switch statement which reads the value of the field with the wire tag in "tag" from
+     * "reader", and skips the values of unknown fields. Skipped fields are handed to addUnknownField
+     * if keepUnknown is set, which requires their start offset in the "start" variable. Skipped fields
+     * are counted in the "skipped" variable if countSkipped is set.
+     */
+    private void writeDecodeSwitch(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos, boolean keepUnknown,
+                                   boolean countSkipped)
+    {
+        writeWithIndentAndNewLine("switch(tag) {", true);
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        {
+            int wireType = FieldUtil.getWireType(fieldDescriptorProto);
+            if (wireType < 0)
+            {
+                // groups are not supported and are skipped by the default case
+                continue;
+            }
+
+            final int number = fieldDescriptorProto.getNumber();
+            final String field = "self." + fieldDescriptorProto.getName();
+            final String spare = "self." + FieldUtil.getSpareName(fieldDescriptorProto);
+            final String readCall = "reader." + FieldUtil.getReadFunction(fieldDescriptorProto, nativeNumbers) + "()";
+
+            if (FieldUtil.isPackable(fieldDescriptorProto))
+            {
+                writeWithIndentAndNewLine("case " + FieldUtil.makeTag(number, FieldUtil.WIRETYPE_LENGTH_DELIMITED) + ":", true);
+                writeWithIndentAndNewLine("limit = reader.pushLimit(reader.readVarint());");
+                writeWithIndentAndNewLine("i = " + field + " == null ? 0 : " + field + ".size();");
+                writeWithIndentAndNewLine(field + " = BufMonkey.ProtoUtils.reuseArray(" + field + ", " + spare
+                        + ", reader.countPacked(" + wireType + "));");
+                writeWithIndentAndNewLine("while(reader.pos < reader.limit) {", true);
+                writeWithIndentAndNewLine(field + "[i] = " + readCall + ";");
+                writeWithIndentAndNewLine("i++;");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                writeWithIndentAndNewLine("reader.popLimit(limit);");
+                writeWithIndentAndNewLine("break;");
+                decreaseIndent(1);
+            }
+
+            writeWithIndentAndNewLine("case " + FieldUtil.makeTag(number, wireType) + ":", true);
+            if (fieldDescriptorProto.hasOneofIndex())
+            {
+                writeOneofDecode(fieldDescriptorProto, readCall);
+            } else if (isMap(fieldDescriptorProto))
+            {
+                writeWithIndentAndNewLine("limit = reader.pushLimit(reader.readVarint());");
+                writeWithIndentAndNewLine("decodeMapEntry(" + number + ", reader);");
+                writeWithIndentAndNewLine("reader.popLimit(limit);");
+            } else if (FieldUtil.isMessage(fieldDescriptorProto))
+            {
+                String typeName = FieldUtil.getMessageClassName(fieldDescriptorProto);
+                writeWithIndentAndNewLine("limit = reader.pushLimit(reader.readVarint());");
+                if (FieldUtil.isRepeated(fieldDescriptorProto))
+                {
+                    writeArrayInitialization(field);
+                    writeWithIndentAndNewLine("msg = BufMonkey.ProtoUtils.reuseMessage(" + spare + ", " + field + ".size());");
+                    writeWithIndentAndNewLine("if(msg == null) {", true);
+                    writeWithIndentAndNewLine("msg = new " + typeName + "();");
+                    decreaseIndent(1);
+                    writeWithIndentAndNewLine("}");
+                    writeWithIndentAndNewLine("msg.decodeFrom(reader);");
+                    writeWithIndentAndNewLine(field + ".add(msg);");
+                } else
+                {
+                    // a message that is already set is merged into, otherwise the spare is reused
+                    writeWithIndentAndNewLine("if(" + field + " == null) {", true);
+                    writeWithIndentAndNewLine("if(" + spare + " != null) {", true);
+                    writeWithIndentAndNewLine(field + " = " + spare + ";");
+                    writeWithIndentAndNewLine(field + ".clear();");
+                    decreaseIndent(1);
+                    writeWithIndentAndNewLine("} else {", true);
+                    writeWithIndentAndNewLine(field + " = new " + typeName + "();");
+                    decreaseIndent(1);
+                    writeWithIndentAndNewLine("}");
+                    decreaseIndent(1);
+                    writeWithIndentAndNewLine("}");
+                    writeWithIndentAndNewLine(field + ".decodeFrom(reader);");
+                }
+                writeWithIndentAndNewLine("reader.popLimit(limit);");
+            } else if (FieldUtil.isRepeated(fieldDescriptorProto))
+            {
+                writeArrayInitialization(field);
+                writeWithIndentAndNewLine(field + ".add(" + readCall + ");");
+            } else
+            {
+                writeWithIndentAndNewLine(field + " = " + readCall + ";");
+            }
+            writeWithIndentAndNewLine("break;");
+            decreaseIndent(1);
+        }
+
+        writeWithIndentAndNewLine("default:", true);
+        writeWithIndentAndNewLine("reader.skipField(tag);");
+        if (keepUnknown)
+        {
+            writeWithIndentAndNewLine("addUnknownField(reader.buf, start, reader.pos);");
+        }
+        if (countSkipped)
+        {
+            writeWithIndentAndNewLine("skipped++;");
+        }
+        writeWithIndentAndNewLine("break;");
+        decreaseIndent(2);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the computeSize function which returns the exact number of bytes the encoded message
+     * takes up. This is the first pass of encoding and allows the output to be allocated only once.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     * @param proto3                whether the fields are declared in a proto3 file (packed by default)
+     * @param lazy                  whether the class is a lazy message class whose fields are decoded first
+     */
+    public void writeComputeSizeFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos, boolean proto3,
+                                         boolean lazy)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function computeSize() {", true);
+        if (lazy)
+        {
+            // writeTo runs after computeSize, so every field is decoded before it is written
+            writeWithIndentAndNewLine("materializeAll();");
+        }
+        writeWithIndentAndNewLine("var size = 0;");
+        if (fieldDescriptorProtos.stream().anyMatch(field -> FieldUtil.isRepeated(field) && FieldUtil.getFixedSize(field) < 0))
+        {
+            writeWithIndentAndNewLine("var i;");
+        }
+        writeEncodeVariables(fieldDescriptorProtos, proto3);
+
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        {
+            int wireType = FieldUtil.getWireType(fieldDescriptorProto);
+            if (wireType < 0)
+            {
+                continue;
+            }
+
+            final String field = getStorage(fieldDescriptorProto);
+            if (isMap(fieldDescriptorProto))
+            {
+                final int tagSize = FieldUtil.getTagBytes(FieldUtil.makeTag(fieldDescriptorProto.getNumber(), wireType)).length;
+                writeMapLoop(getDirtyCheck(fieldDescriptorProtos, fieldDescriptorProto), field);
+                writeMapEntryLength(fieldDescriptorProto, field, false);
+                writeWithIndentAndNewLine("size += " + tagSize + " + BufMonkey.ProtoUtils.sizeOfLengthDelimited(len);");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                continue;
+            }
+
+            final int tagSize = FieldUtil.getTagBytes(FieldUtil.makeTag(fieldDescriptorProto.getNumber(), wireType)).length;
+            final int fixedSize = FieldUtil.getFixedSize(fieldDescriptorProto);
+
+            if (FieldUtil.isPacked(fieldDescriptorProto, proto3))
+            {
+                final int packedTagSize = FieldUtil.getTagBytes(FieldUtil.makeTag(fieldDescriptorProto.getNumber(),
+                        FieldUtil.WIRETYPE_LENGTH_DELIMITED)).length;
+                writeWithIndentAndNewLine("if(" + getDirtyCheck(fieldDescriptorProtos, fieldDescriptorProto) + field + " != null && "
+                        + field + ".size() > 0) {", true);
+                writePackedLength(fieldDescriptorProto, field);
+                writeWithIndentAndNewLine("size += " + packedTagSize + " + BufMonkey.ProtoUtils.sizeOfLengthDelimited(len);");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                continue;
+            }
+
+            writeWithIndentAndNewLine("if(" + getDirtyCheck(fieldDescriptorProtos, fieldDescriptorProto)
+                    + getPresence(fieldDescriptorProto) + ") {", true);
+            if (!FieldUtil.isRepeated(fieldDescriptorProto))
+            {
+                writeWithIndentAndNewLine("size += " + tagSize + " + " + getSizeExpression(fieldDescriptorProto, field) + ";");
+            } else if (fixedSize > 0)
+            {
+                writeWithIndentAndNewLine("size += " + field + ".size() * " + (tagSize + fixedSize) + ";");
+            } else
+            {
+                writeWithIndentAndNewLine("for(i = 0; i < " + field + ".size(); i++) {", true);
+                writeWithIndentAndNewLine("size += " + tagSize + " + " + getSizeExpression(fieldDescriptorProto, field + "[i]") + ";");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+            }
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+        }
+
+        if (preserveUnknownFields)
+        {
+            writeWithIndentAndNewLine("if(" + getUnknownFieldsCheck() + ") {", true);
+            writeWithIndentAndNewLine("size += self.unknownFields.size();");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+        }
+
+        // writeTo of the parent reads the size back instead of walking the subtree again
+        writeWithIndentAndNewLine("bm_cachedSize = size;");
+        writeWithIndentAndNewLine("return size;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
+
+    /**
+     * Writes the writeTo function which encodes every set field into a buffer that was sized with
+     * computeSize. Tag bytes are written as precomputed constants.
+     *
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     * @param proto3                whether the fields are declared in a proto3 file (packed by default)
      */
-    private final Writer writer;
+    public void writeWriteToFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos, boolean proto3)
+    {
+        writeNewLine();
+        writeWithIndentAndNewLine("function writeTo(buf, pos) {", true);
+        if (fieldDescriptorProtos.stream().anyMatch(FieldUtil::isRepeated))
+        {
+            writeWithIndentAndNewLine("var i;");
+        }
+        writeEncodeVariables(fieldDescriptorProtos, proto3);
+
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        {
+            int wireType = FieldUtil.getWireType(fieldDescriptorProto);
+            if (wireType < 0)
+            {
+                continue;
+            }
+
+            final String field = getStorage(fieldDescriptorProto);
+            final int[] tagBytes = FieldUtil.getTagBytes(FieldUtil.makeTag(fieldDescriptorProto.getNumber(), wireType));
+
+            if (isMap(fieldDescriptorProto))
+            {
+                writeMapLoop(getDirtyCheck(fieldDescriptorProtos, fieldDescriptorProto), field);
+                writeMapEntryLength(fieldDescriptorProto, field, true);
+                writeTagBytes(tagBytes);
+                writeWithIndentAndNewLine("pos = BufMonkey.ProtoUtils.writeVarint32(buf, pos + " + tagBytes.length + ", len);");
+                writeMapEntryValue(fieldDescriptorProto, FieldUtil.MAP_KEY, "keys[i]");
+                writeMapEntryValue(fieldDescriptorProto, FieldUtil.MAP_VALUE, field + "[keys[i]]");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                continue;
+            }
+
+            if (FieldUtil.isPacked(fieldDescriptorProto, proto3))
+            {
+                final int[] packedTagBytes = FieldUtil.getTagBytes(FieldUtil.makeTag(fieldDescriptorProto.getNumber(),
+                        FieldUtil.WIRETYPE_LENGTH_DELIMITED));
+                writeWithIndentAndNewLine("if(" + getDirtyCheck(fieldDescriptorProtos, fieldDescriptorProto) + field + " != null && "
+                        + field + ".size() > 0) {", true);
+                writeTagBytes(packedTagBytes);
+                writePackedLength(fieldDescriptorProto, field);
+                writeWithIndentAndNewLine("pos = BufMonkey.ProtoUtils.writeVarint32(buf, pos + " + packedTagBytes.length + ", len);");
+                writeWithIndentAndNewLine("for(i = 0; i < " + field + ".size(); i++) {", true);
+                writeValue(fieldDescriptorProto, field + "[i]", new int[0]);
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                continue;
+            }
 
-    /**
-     * A single indentation string
-     */
-    private final String INDENT = "    ";
+            writeWithIndentAndNewLine("if(" + getDirtyCheck(fieldDescriptorProtos, fieldDescriptorProto)
+                    + getPresence(fieldDescriptorProto) + ") {", true);
+            if (FieldUtil.isRepeated(fieldDescriptorProto))
+            {
+                writeWithIndentAndNewLine("for(i = 0; i < " + field + ".size(); i++) {", true);
+                writeValue(fieldDescriptorProto, field + "[i]", tagBytes);
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+            } else
+            {
+                writeValue(fieldDescriptorProto, field, tagBytes);
+            }
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+        }
 
-    /**
-     * The current indentation string value
-     */
-    private String currentIndentString = "";
+        if (preserveUnknownFields)
+        {
+            // unknown fields are written back out as they were received
+            writeWithIndentAndNewLine("if(" + getUnknownFieldsCheck() + ") {", true);
+            writeWithIndentAndNewLine("pos = BufMonkey.ProtoUtils.writeRaw(buf, pos, self.unknownFields);");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+        }
+
+        writeWithIndentAndNewLine("return pos;");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+    }
 
     /**
-     * The current indentation level
+     * Writes the statements that encode the tag and a single value of a field into buf and advance pos
+     *
+     * @param field    field descriptor
+     * @param value    String expression holding the value
+     * @param tagBytes precomputed tag bytes
      */
-    private int currentIndent = 0;
-
-    public MonkeyWriter(Writer writer)
+    private void writeValue(DescriptorProtos.FieldDescriptorProto field, String value, int[] tagBytes)
     {
-        this.writer = writer;
+        writeTagBytes(tagBytes);
+        final String offset = tagBytes.length == 0 ? "pos" : "pos + " + tagBytes.length;
+
+        switch (field.getType())
+        {
+            case TYPE_BOOL:
+                writeWithIndentAndNewLine("buf[" + offset + "] = " + value + " ? 1 : 0;");
+                writeWithIndentAndNewLine("pos += " + (tagBytes.length + 1) + ";");
+                break;
+            case TYPE_MESSAGE:
+                writeWithIndentAndNewLine("pos = BufMonkey.ProtoUtils.writeVarint32(buf, " + offset + ", " + value + ".getCachedSize());");
+                writeWithIndentAndNewLine("pos = " + value + ".writeTo(buf, pos);");
+                break;
+            default:
+                writeWithIndentAndNewLine("pos = BufMonkey.ProtoUtils." + getWriteFunction(field) + "(buf, " + offset + ", "
+                        + getEncodedValueExpression(field, value) + ");");
+                break;
+        }
     }
 
     /**
-     * Writes a single field out to the writer object
+     * Writes the decodeMapEntry function which decodes a single map entry from the reader, up to its
+     * limit, straight into the Dictionary of its map field. Missing keys and values get their default
+     * value. Nothing is written if the message has no map fields.
      *
-     * @param fieldName String name of the field
-     * @param modifier  Access modifier
+     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
      */
-    public void writeField(String fieldName, String modifier)
+    public void writeDecodeMapEntryFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
     {
-        if (modifier != null)
+        if (fieldDescriptorProtos.stream().noneMatch(this::isMap))
         {
-            writeWithIndent(modifier + " ");
+            return;
         }
 
-        writeWithNewLine("var " + fieldName + ";");
+        writeNewLine();
+        writeWithIndentAndNewLine("function decodeMapEntry(position, reader) {", true);
+        writeWithIndentAndNewLine("var tag;");
+        writeWithIndentAndNewLine("var key;");
+        writeWithIndentAndNewLine("var value;");
+        if (fieldDescriptorProtos.stream().anyMatch(field -> isMap(field)
+                && FieldUtil.isMessage(getMapEntryField(field, FieldUtil.MAP_VALUE))))
+        {
+            writeWithIndentAndNewLine("var limit;");
+        }
+        writeWithIndentAndNewLine("switch(position) {", true);
+
+        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        {
+            if (!isMap(fieldDescriptorProto))
+            {
+                continue;
+            }
+
+            final DescriptorProtos.FieldDescriptorProto keyField = getMapEntryField(fieldDescriptorProto, FieldUtil.MAP_KEY);
+            final DescriptorProtos.FieldDescriptorProto valueField = getMapEntryField(fieldDescriptorProto, FieldUtil.MAP_VALUE);
+            final String field = getStorage(fieldDescriptorProto);
+            // bytes and message defaults are only allocated if the value is missing
+            final boolean allocatedDefault = FieldUtil.isMessage(valueField)
+                    || valueField.getType() == DescriptorProtos.FieldDescriptorProto.Type.TYPE_BYTES;
+
+            writeWithIndentAndNewLine("case " + fieldDescriptorProto.getNumber() + ":", true);
+            writeWithIndentAndNewLine("key = " + getDefaultValue(keyField) + ";");
+            writeWithIndentAndNewLine("value = " + (allocatedDefault ? "null" : getDefaultValue(valueField)) + ";");
+            writeWithIndentAndNewLine("while(reader.pos < reader.limit) {", true);
+            writeWithIndentAndNewLine("tag = reader.readVarint();");
+            writeWithIndentAndNewLine("if(tag == " + FieldUtil.makeTag(FieldUtil.MAP_KEY, FieldUtil.getWireType(keyField)) + ") {", true);
+            writeWithIndentAndNewLine("key = reader." + FieldUtil.getReadFunction(keyField, nativeNumbers) + "();");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("} else if(tag == " + FieldUtil.makeTag(FieldUtil.MAP_VALUE, FieldUtil.getWireType(valueField)) + ") {", true);
+            if (FieldUtil.isMessage(valueField))
+            {
+                // a value that occurs more than once in the entry is merged
+                writeWithIndentAndNewLine("limit = reader.pushLimit(reader.readVarint());");
+                writeWithIndentAndNewLine("if(value == null) {", true);
+                writeWithIndentAndNewLine("value = new " + FieldUtil.getMessageClassName(valueField) + "();");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+                writeWithIndentAndNewLine("value.decodeFrom(reader);");
+                writeWithIndentAndNewLine("reader.popLimit(limit);");
+            } else
+            {
+                writeWithIndentAndNewLine("value = reader." + FieldUtil.getReadFunction(valueField, nativeNumbers) + "();");
+            }
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("} else {", true);
+            writeWithIndentAndNewLine("reader.skipField(tag);");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+            if (allocatedDefault)
+            {
+                writeWithIndentAndNewLine("if(value == null) {", true);
+                writeWithIndentAndNewLine("value = " + getDefaultValue(valueField) + ";");
+                decreaseIndent(1);
+                writeWithIndentAndNewLine("}");
+            }
+            writeWithIndentAndNewLine("if(" + field + " == null) {", true);
+            writeWithIndentAndNewLine(field + " = {};");
+            decreaseIndent(1);
+            writeWithIndentAndNewLine("}");
+            writeWithIndentAndNewLine(field + ".put(key, value);");
+            writeWithIndentAndNewLine("break;");
+            decreaseIndent(1);
+        }
+
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
+        decreaseIndent(1);
+        writeWithIndentAndNewLine("}");
     }
 
     /**
-     * Writes the imports for the internal and external classes
+     * Writes the local variables used when encoding packed and map fields
+     */
+    private void writeEncodeVariables(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos, boolean proto3)
+    {
+        if (fieldDescriptorProtos.stream().anyMatch(field -> FieldUtil.isPacked(field, proto3) || isMap(field)))
+        {
+            writeWithIndentAndNewLine("var len;");
+        }
+        if (fieldDescriptorProtos.stream().anyMatch(this::isMap))
+        {
+            writeWithIndentAndNewLine("var keys;");
+        }
+    }
+
+    /**
+     * Writes the opening of a loop over the keys of a map field that is set. Both the if and the for
+     * statement have to be closed by the caller.
      *
-     * @param imports {@link List} String list of fully qualified import names
+     * @param dirtyCheck String start of the condition, see getDirtyCheck
+     * @param field      String expression holding the Dictionary
      */
-    public void writeImports(List<String> imports)
+    private void writeMapLoop(String dirtyCheck, String field)
     {
-        imports.forEach(importName -> writeWithNewLine("using " + importName + ";"));
-        writeNewLine();
+        writeWithIndentAndNewLine("if(" + dirtyCheck + field + " != null) {", true);
+        writeWithIndentAndNewLine("keys = " + field + ".keys();");
+        writeWithIndentAndNewLine("for(i = 0; i < keys.size(); i++) {", true);
     }
 
     /**
-     * Writes a Monkey C namespace based on the provided package name. The namespace will reside under a root Generated
-     * namespace.
+     * Writes the statement that computes the payload length of the map entry of keys[i] into the len
+     * variable. The key and value are always written, even if they hold their default value.
      *
-     * @param packageName String package name read in by Protobuf
+     * @param field      field descriptor of the map field
+     * @param value      String expression holding the Dictionary
+     * @param cachedSize whether message values were already sized by computeSize
      */
-    public void writeNamespace(String packageName)
+    private void writeMapEntryLength(DescriptorProtos.FieldDescriptorProto field, String value, boolean cachedSize)
     {
-        String[] namespaces = packageName.split("\\.");
-        for (String namespace : namespaces)
+        int constant = 0;
+        StringBuilder expression = new StringBuilder();
+        for (int number : new int[]{FieldUtil.MAP_KEY, FieldUtil.MAP_VALUE})
         {
-            if (!namespace.equals(""))
+            DescriptorProtos.FieldDescriptorProto entryField = getMapEntryField(field, number);
+            constant += FieldUtil.getTagBytes(FieldUtil.makeTag(number, FieldUtil.getWireType(entryField))).length;
+            int fixedSize = FieldUtil.getFixedSize(entryField);
+            if (fixedSize > 0)
             {
-                writeModuleName(namespace);
+                constant += fixedSize;
+            } else
+            {
+                expression.append(" + ").append(getSizeExpression(entryField,
+                        number == FieldUtil.MAP_KEY ? "keys[i]" : value + "[keys[i]]", cachedSize));
             }
         }
+        writeWithIndentAndNewLine("len = " + constant + expression + ";");
     }
 
     /**
-     * Writes a Monkey C opening class line and bracket
+     * Writes the tag and value of the key or value of a map entry
      *
-     * @param className String name of the class
+     * @param field  field descriptor of the map field
+     * @param number {@link FieldUtil#MAP_KEY} or {@link FieldUtil#MAP_VALUE}
+     * @param value  String expression holding the key or value
      */
-    public void writeClassName(String className)
+    private void writeMapEntryValue(DescriptorProtos.FieldDescriptorProto field, int number, String value)
     {
-        writeWithIndentAndNewLine("class " + className + " {", true);
+        DescriptorProtos.FieldDescriptorProto entryField = getMapEntryField(field, number);
+        writeValue(entryField, value, FieldUtil.getTagBytes(FieldUtil.makeTag(number, FieldUtil.getWireType(entryField))));
     }
 
     /**
-     * Writes a Monkey C opening class line that exentds from a parent class
+     * Returns the Monkey C literal of the default value of a map key or value
      *
-     * @param className   String name of the class
-     * @param extendsFrom String name of the parent class
+     * @param field field descriptor
+     * @return Monkey C expression
      */
-    public void writeClassName(String className, String extendsFrom)
+    private String getDefaultValue(DescriptorProtos.FieldDescriptorProto field)
     {
-        writeWithIndentAndNewLine("class " + className + " extends " + extendsFrom + " {", true);
+        switch (field.getType())
+        {
+            case TYPE_BOOL:
+                return "false";
+            case TYPE_STRING:
+                return "\"\"";
+            case TYPE_BYTES:
+                return "[]b";
+            case TYPE_MESSAGE:
+                return "new " + FieldUtil.getMessageClassName(field) + "()";
+            case TYPE_FLOAT:
+                return "0.0";
+            case TYPE_DOUBLE:
+                return "0.0d";
+            case TYPE_INT64:
+            case TYPE_UINT64:
+            case TYPE_SINT64:
+            case TYPE_FIXED64:
+            case TYPE_SFIXED64:
+                return "0l";
+            default:
+                return "0";
+        }
     }
 
     /**
-     * Writes a single module line
-     *
-     * @param moduleName String module name
+     * @return true if the field is a map field, see {@link #setMapEntries(Map)}
      */
-    public void writeModuleName(String moduleName)
+    private boolean isMap(DescriptorProtos.FieldDescriptorProto field)
     {
-        writeWithIndentAndNewLine("module " + moduleName + " {", true);
+        return mapEntries.containsKey(field.getNumber());
     }
 
     /**
-     * Writes a Monkey C constructor with parent initialization if provided.
-     *
-     * @param args List of String arguments for the constructor
-     * @param parent String parent name
-     * @param parentArgs List of String arguments to pass to the parent constructor
-     * @param body String constructor body
+     * @return true if the field holds embedded message instances, which excludes map fields
      */
-    public void writeConstructor(List<String> args, String parent, List<String> parentArgs, String body)
+    private boolean isEmbeddedMessage(DescriptorProtos.FieldDescriptorProto field)
     {
-        writeNewLine();
-        writeWithIndent("function initialize(");
-        write(String.join(",", args));
-        writeWithNewLine(") {");
-        increaseIndent();
+        return FieldUtil.isMessage(field) && !isMap(field);
+    }
 
-        if (parent != null)
-        {
-            writeWithIndent(parent + ".initialize(");
-            write(String.join(",", parentArgs));
-            writeWithNewLine(");");
-        }
+    /**
+     * @return the key or value field of the entry of a map field
+     */
+    private DescriptorProtos.FieldDescriptorProto getMapEntryField(DescriptorProtos.FieldDescriptorProto field, int number)
+    {
+        return FieldUtil.getMapEntryField(mapEntries.get(field.getNumber()), number);
+    }
 
-        if (body != null)
+    /**
+     * Writes the statements that compute the payload length of a packed field into the len variable
+     *
+     * @param field field descriptor
+     * @param value String expression holding the array
+     */
+    private void writePackedLength(DescriptorProtos.FieldDescriptorProto field, String value)
+    {
+        int fixedSize = FieldUtil.getFixedSize(field);
+        if (fixedSize > 0)
         {
-            write(body);
+            writeWithIndentAndNewLine("len = " + value + ".size() * " + fixedSize + ";");
+            return;
         }
 
+        writeWithIndentAndNewLine("len = 0;");
+        writeWithIndentAndNewLine("for(i = 0; i < " + value + ".size(); i++) {", true);
+        writeWithIndentAndNewLine("len += " + getSizeExpression(field, value + "[i]") + ";");
         decreaseIndent(1);
         writeWithIndentAndNewLine("}");
     }
 
     /**
-     * Converts a List of {@link com.google.protobuf.DescriptorProtos.FieldDescriptorProto} objects to a type map
-     * which maps elements based on their field number.
+     * Writes the precomputed tag bytes of a field at the current buffer position
      *
-     * @param fieldDescriptorList {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>}
-     * @return String formatted Type mapping
+     * @param tagBytes varint encoded tag bytes
      */
-    public String getTypeMapParam(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorList)
+    private void writeTagBytes(int[] tagBytes)
     {
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("{");
-        sb.append(System.lineSeparator());
-        increaseIndent();
-        increaseIndent();
-
-        String collect = fieldDescriptorList.stream()
-                .map(fieldDescriptorProto -> {
-                    boolean isRepeated = fieldDescriptorProto.getLabel().equals(DescriptorProtos.FieldDescriptorProto.Label.LABEL_REPEATED);
-                    int integer = fieldDescriptorProto.getNumber();
-
-                    String typeName = "";
-                    if (fieldDescriptorProto.getType().equals(DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE))
-                    {
-                        typeName = "embedded";
-                    } else
-                    {
-                        typeName = fieldDescriptorProto.getType().name().substring("TYPE_".length()).toLowerCase();
-                    }
-
-                    if (isRepeated)
-                    {
-                        return currentIndentString + integer + " => " + "[" + "\"repeated\", " + "\"" + typeName + "\"" + "]";
-                    } else
-                    {
-                        return currentIndentString + integer + " => " + "[\"" + typeName + "\"" + "]";
-                    }
-                })
-                .collect(Collectors.joining("," + System.lineSeparator()));
-
-        sb.append(collect);
-        sb.append(System.lineSeparator());
-        decreaseIndent(1);
-        sb.append(currentIndentString);
-        sb.append("}");
-        decreaseIndent(1);
-        return sb.toString();
+        for (int i = 0; i < tagBytes.length; i++)
+        {
+            writeWithIndentAndNewLine("buf[" + (i == 0 ? "pos" : "pos + " + i) + "] = " + tagBytes[i] + ";");
+        }
     }
 
     /**
-     * Writes a print function for printing an object to the console
+     * Returns an expression for the number of bytes a single value of the field takes up, excluding the tag
      *
-     * @param className String name of the class containing the print method
-     * @param fields {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     * @param field field descriptor
+     * @param value String expression holding the value
+     * @return Monkey C expression
      */
-    public void writePrintFunction(String className, List<DescriptorProtos.FieldDescriptorProto> fields)
+    private String getSizeExpression(DescriptorProtos.FieldDescriptorProto field, String value)
     {
-        writeNewLine();
-        writeWithIndentAndNewLine("function print() {", true);
+        return getSizeExpression(field, value, false);
+    }
 
-        writeWithIndentAndNewLine("System.println(\"" + className + " {\");");
-        for (DescriptorProtos.FieldDescriptorProto field : fields)
+    /**
+     * Returns an expression for the number of bytes a single value of the field takes up, excluding the tag
+     *
+     * @param field      field descriptor
+     * @param value      String expression holding the value
+     * @param cachedSize whether an embedded message was already sized by computeSize, so that the size
+     *                   it cached is used instead of walking the message again
+     * @return Monkey C expression
+     */
+    private String getSizeExpression(DescriptorProtos.FieldDescriptorProto field, String value, boolean cachedSize)
+    {
+        int fixedSize = FieldUtil.getFixedSize(field);
+        if (fixedSize > 0)
         {
-            writeWithIndentAndNewLine("if(" + field.getName() + " != null) {", true);
-            boolean isMessage = field.getType().equals(DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE);
-            writeWithIndentAndNewLine("System.println(\"     " + field.getName() + ": \" + "
-                    + field.getName() + (isMessage ? ".print()" : ".toString()") + ");");
-            decreaseIndent(1);
-            writeWithIndentAndNewLine("}");
+            return String.valueOf(fixedSize);
         }
-        writeWithIndentAndNewLine("System.println(\"}\");");
 
-        decreaseIndent(1);
-        writeWithIndentAndNewLine("}");
+        switch (field.getType())
+        {
+            case TYPE_INT32:
+            case TYPE_ENUM:
+                return "BufMonkey.ProtoUtils.sizeOfInt32(" + value + ")";
+            case TYPE_UINT32:
+            case TYPE_SINT32:
+                return "BufMonkey.ProtoUtils.sizeOfVarint32(" + getEncodedValueExpression(field, value) + ")";
+            case TYPE_INT64:
+            case TYPE_UINT64:
+            case TYPE_SINT64:
+                return "BufMonkey.ProtoUtils.sizeOfVarLong(" + getEncodedValueExpression(field, value) + ")";
+            case TYPE_STRING:
+                return "BufMonkey.ProtoUtils.sizeOfString(" + value + ")";
+            case TYPE_BYTES:
+                return "BufMonkey.ProtoUtils.sizeOfLengthDelimited(" + value + ".size())";
+            case TYPE_MESSAGE:
+                return "BufMonkey.ProtoUtils.sizeOfLengthDelimited(" + value
+                        + (cachedSize ? ".getCachedSize())" : ".computeSize())");
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + field.getType());
+        }
     }
 
     /**
-     * Writes the setValue function based on the field list
+     * Returns the value expression as it is handed to the ProtoUtils write functions, applying zigzag
+     * encoding for sint32 and sint64 fields
      *
-     * @param fieldDescriptorProtos {@link List<com.google.protobuf.DescriptorProtos.FieldDescriptorProto>} field list
+     * @param field field descriptor
+     * @param value String expression holding the value
+     * @return Monkey C expression
      */
-    public void writeSetValueFunction(List<DescriptorProtos.FieldDescriptorProto> fieldDescriptorProtos)
+    private String getEncodedValueExpression(DescriptorProtos.FieldDescriptorProto field, String value)
     {
-        writeNewLine();
-        writeWithIndentAndNewLine("function setValue(position, value) {", true);
-
-        writeWithIndentAndNewLine("switch(position) {", true);
-
-        for (DescriptorProtos.FieldDescriptorProto fieldDescriptorProto : fieldDescriptorProtos)
+        switch (field.getType())
         {
-            final int position = fieldDescriptorProto.getNumber();
-            final String fieldName = fieldDescriptorProto.getName();
-            boolean isMessage = fieldDescriptorProto.getType().equals(DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE);
-
-            writeWithIndentAndNewLine("case " + position + ":", true);
+            case TYPE_SINT32:
+                return "BufMonkey.ProtoUtils.zigZag32(" + value + ")";
+            case TYPE_SINT64:
+                return "BufMonkey.ProtoUtils.zigZag64(" + value + ")";
+            default:
+                return value;
+        }
+    }
 
-            if (isMessage)
-            {
-                String typeName = fieldDescriptorProto.getTypeName();
-                if (typeName.startsWith("."))
-                {
-                    typeName = typeName.substring(1);
-                }
-                writeWithIndentAndNewLine(fieldName + " = new " + typeName + "();");
-                writeWithIndentAndNewLine(fieldName + ".decode(value);");
-            } else
-            {
-                writeWithIndentAndNewLine(fieldName + " = value;");
-            }
-            writeWithIndentAndNewLine("break;");
-            decreaseIndent(1);
+    /**
+     * Returns the name of the BufMonkey.ProtoUtils function that writes a single value of the field
+     *
+     * @param field field descriptor
+     * @return writer function name
+     */
+    private String getWriteFunction(DescriptorProtos.FieldDescriptorProto field)
+    {
+        switch (field.getType())
+        {
+            case TYPE_DOUBLE:
+                return "writeDouble";
+            case TYPE_FLOAT:
+                return nativeNumbers ? "writeFloat" : "writeFloatCompat";
+            case TYPE_INT32:
+            case TYPE_ENUM:
+                return "writeInt32";
+            case TYPE_UINT32:
+            case TYPE_SINT32:
+                return "writeVarint32";
+            case TYPE_INT64:
+            case TYPE_UINT64:
+            case TYPE_SINT64:
+                return "writeVarLong";
+            case TYPE_FIXED32:
+            case TYPE_SFIXED32:
+                return "writeFixed32";
+            case TYPE_FIXED64:
+            case TYPE_SFIXED64:
+                return "writeFixed64";
+            case TYPE_STRING:
+                return "writeString";
+            case TYPE_BYTES:
+                return "writeBytes";
+            default:
+                throw new IllegalArgumentException("Unsupported field type: " + field.getType());
         }
+    }
 
-        writeWithIndentAndNewLine("default:", true);
-        writeWithIndentAndNewLine("System.println(\"Unknown value!\");");
-        writeWithIndentAndNewLine("break;");
-        decreaseIndent(2);
-        writeWithIndentAndNewLine("}");
+    /**
+     * Writes a null check that creates an empty array for a repeated field
+     *
+     * @param field String field reference
+     */
+    private void writeArrayInitialization(String field)
+    {
+        writeWithIndentAndNewLine("if(" + field + " == null) {", true);
+        writeWithIndentAndNewLine(field + " = [];");
         decreaseIndent(1);
         writeWithIndentAndNewLine("}");
     }
@@ -276,27 +1863,16 @@ public class MonkeyWriter
      */
     public String toString()
     {
-        return writer.toString();
+        return builder.toString();
     }
 
     /**
-     * Flushes the writer
+     * Clears the written output and resets the indentation so the writer can be reused
      */
     public void flush()
     {
-        if (writer instanceof StringWriter)
-        {
-            ((StringWriter) writer).getBuffer().setLength(0);
-        } else
-        {
-            try
-            {
-                writer.flush();
-            } catch (IOException e)
-            {
-                e.printStackTrace();
-            }
-        }
+        builder.setLength(0);
+        setIndent(0);
     }
 
     /**
@@ -314,6 +1890,19 @@ public class MonkeyWriter
      * @param packageName String package name
      */
     public void writeClosingBrackets(String packageName)
+    {
+        writeNamespaceClosingBrackets(packageName);
+
+        //One to close the class
+        writeClosingBracket();
+    }
+
+    /**
+     * Writes the closing brackets of the modules opened by {@link #writeNamespace(String)}
+     *
+     * @param packageName String package name
+     */
+    public void writeNamespaceClosingBrackets(String packageName)
     {
         String[] namespaces = packageName.split("\\.");
         for (String namespace : namespaces)
@@ -324,10 +1913,6 @@ public class MonkeyWriter
                 writeWithIndentAndNewLine("}");
             }
         }
-
-        //One to close the class
-        decreaseIndent(1);
-        writeWithIndentAndNewLine("}");
     }
 
     /**
@@ -348,7 +1933,7 @@ public class MonkeyWriter
      */
     private void writeWithIndent(String s, boolean increaseIndent)
     {
-        write(currentIndentString + s);
+        builder.append(currentIndentString).append(s);
         if (increaseIndent)
         {
             increaseIndent();
@@ -362,13 +1947,7 @@ public class MonkeyWriter
      */
     private void write(String s)
     {
-        try
-        {
-            writer.write(s);
-        } catch (IOException e)
-        {
-            System.out.println("Unable to write the line(s) to the writer due to: " + e.getMessage());
-        }
+        builder.append(s);
     }
 
     /**
@@ -398,12 +1977,7 @@ public class MonkeyWriter
      */
     private void increaseIndent()
     {
-        currentIndent++;
-        currentIndentString = "";
-        for (int i = 0; i < currentIndent; i++)
-        {
-            currentIndentString += INDENT;
-        }
+        setIndent(currentIndent + 1);
     }
 
     /**
@@ -413,15 +1987,28 @@ public class MonkeyWriter
      */
     private void decreaseIndent(int numTimes)
     {
-        currentIndent -= numTimes;
-        if (currentIndent < 0)
+        setIndent(Math.max(0, currentIndent - numTimes));
+    }
+
+    /**
+     * Sets the indentation level and looks up its indentation string
+     *
+     * @param indent int indentation level
+     */
+    private void setIndent(int indent)
+    {
+        currentIndent = indent;
+        if (indent < INDENTS.length)
         {
-            currentIndent = 0;
-        }
-        currentIndentString = "";
-        for (int i = 0; i < currentIndent; i++)
+            currentIndentString = INDENTS[indent];
+        } else
         {
-            currentIndentString += INDENT;
+            StringBuilder sb = new StringBuilder(INDENTS[INDENTS.length - 1]);
+            for (int i = INDENTS.length - 1; i < indent; i++)
+            {
+                sb.append(INDENT);
+            }
+            currentIndentString = sb.toString();
         }
     }
 
@@ -432,15 +2019,15 @@ public class MonkeyWriter
      */
     private void writeWithNewLine(String s)
     {
-        write(s + System.lineSeparator());
+        builder.append(s).append(NEW_LINE);
     }
 
     /**
      * Writes a new line to the Writer
      */
-    private void writeNewLine()
+    public void writeNewLine()
     {
-        write(System.lineSeparator());
+        builder.append(NEW_LINE);
     }
 
     /**
@@ -451,10 +2038,12 @@ public class MonkeyWriter
     public void writeEnum(List<DescriptorProtos.EnumValueDescriptorProto> enums)
     {
         writeWithIndentAndNewLine("enum {", true);
-        String enumStrings = enums.stream().map(anEnum -> currentIndentString + anEnum.getName()
-                + " = " + anEnum.getNumber())
-                .collect(Collectors.joining("," + System.lineSeparator()));
-        writeWithNewLine(enumStrings);
+        for (int i = 0; i < enums.size(); i++)
+        {
+            DescriptorProtos.EnumValueDescriptorProto anEnum = enums.get(i);
+            builder.append(currentIndentString).append(anEnum.getName()).append(" = ").append(anEnum.getNumber());
+            builder.append(i < enums.size() - 1 ? "," : "").append(NEW_LINE);
+        }
         decreaseIndent(1);
         writeWithIndentAndNewLine("}");
     }
@@ -0,0 +1,219 @@
+package com.chesapeaketechnology.bufmonkey.generator;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.compiler.PluginProtos.CodeGeneratorResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link GenerationCache} keys, hits and eviction
+ */
+public class GenerationCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final FileDescriptorProto COMMON = file("common.proto", "Common");
+    private static final FileDescriptorProto TYPES = file("types.proto", "Types", "common.proto");
+    private static final FileDescriptorProto UNITS = file("units.proto", "Units", "common.proto");
+    private static final FileDescriptorProto SAMPLE = file("sample.proto", "Sample", "types.proto", "units.proto");
+
+    private static final List<CodeGeneratorResponse.File> GENERATED = Collections.singletonList(
+            CodeGeneratorResponse.File.newBuilder().setName("Sample.mc").setContent("class Sample {}").build());
+
+    @Test
+    public void keyDoesNotDependOnTheOrderOfTheRequest() throws IOException
+    {
+        GenerationCache cache = GenerationCache.open(folder.getRoot().toPath(), options());
+
+        String key = cache.computeKey(SAMPLE, byName(COMMON, TYPES, UNITS, SAMPLE));
+        assertEquals(key, cache.computeKey(SAMPLE, byName(SAMPLE, UNITS, TYPES, COMMON)));
+        assertEquals(key, GenerationCache.open(folder.getRoot().toPath(), options())
+                .computeKey(SAMPLE, byName(UNITS, SAMPLE, COMMON, TYPES)));
+    }
+
+    @Test
+    public void keyChangesWithTransitiveDependencies() throws IOException
+    {
+        GenerationCache cache = GenerationCache.open(folder.getRoot().toPath(), options());
+        FileDescriptorProto changed = COMMON.toBuilder().addMessageType(DescriptorProto.newBuilder().setName("Added")).build();
+
+        assertNotEquals(cache.computeKey(SAMPLE, byName(COMMON, TYPES, UNITS, SAMPLE)),
+                cache.computeKey(SAMPLE, byName(changed, TYPES, UNITS, SAMPLE)));
+    }
+
+    @Test
+    public void keyChangesWithOutputOptions() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Map<String, FileDescriptorProto> files = byName(COMMON, TYPES, UNITS, SAMPLE);
+
+        assertNotEquals(GenerationCache.open(directory, options()).computeKey(SAMPLE, files),
+                GenerationCache.open(directory, options("profile", "size")).computeKey(SAMPLE, files));
+        assertEquals(GenerationCache.open(directory, options()).computeKey(SAMPLE, files),
+                GenerationCache.open(directory, options("threads", "4")).computeKey(SAMPLE, files));
+    }
+
+    @Test
+    public void hitAfterColdRun() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Map<String, FileDescriptorProto> files = byName(COMMON, TYPES, UNITS, SAMPLE);
+
+        GenerationCache cold = GenerationCache.open(directory, options());
+        String key = cold.computeKey(SAMPLE, files);
+        assertNull(cold.get(SAMPLE.getName(), key));
+        cold.put(SAMPLE.getName(), key, GENERATED);
+        cold.save();
+
+        GenerationCache warm = GenerationCache.open(directory, options());
+        assertEquals(key, warm.computeKey(SAMPLE, files));
+        assertEquals(GENERATED, warm.get(SAMPLE.getName(), key));
+    }
+
+    @Test
+    public void evictsTheEntryOfAChangedKey() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+
+        GenerationCache first = GenerationCache.open(directory, options());
+        first.put(SAMPLE.getName(), "old", GENERATED);
+        first.save();
+        age(directory.resolve("old" + GenerationCache.ENTRY_EXTENSION), GenerationCache.ENTRY_GRACE_MILLIS + 1000);
+
+        GenerationCache second = GenerationCache.open(directory, options());
+        second.put(SAMPLE.getName(), "new", GENERATED);
+        second.save();
+
+        assertFalse(Files.exists(directory.resolve("old" + GenerationCache.ENTRY_EXTENSION)));
+        assertTrue(Files.exists(directory.resolve("new" + GenerationCache.ENTRY_EXTENSION)));
+    }
+
+    @Test
+    public void evictsRecordsOlderThanTheMaximumAge() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        Path entry = directory.resolve("stale" + GenerationCache.ENTRY_EXTENSION);
+        long lastUsed = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+
+        Files.write(entry, new byte[0]);
+        age(entry, TimeUnit.DAYS.toMillis(2));
+        writeManifest(directory, "options/stale.proto", "stale " + lastUsed);
+
+        GenerationCache.open(directory, options("cacheMaxAge", "1")).save();
+
+        assertFalse(Files.exists(entry));
+        assertTrue(readManifest(directory).isEmpty());
+    }
+
+    @Test
+    public void dropsCorruptRecords() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+        writeManifest(directory, "options/corrupt.proto", "key notANumber");
+
+        GenerationCache cache = GenerationCache.open(directory, options());
+        cache.put(SAMPLE.getName(), "key", GENERATED);
+        cache.save();
+
+        Properties manifest = readManifest(directory);
+        assertNull(manifest.getProperty("options/corrupt.proto"));
+        assertEquals(1, manifest.size());
+    }
+
+    @Test
+    public void keepsTheEntriesOfRunsSharingTheDirectory() throws IOException
+    {
+        Path directory = folder.getRoot().toPath();
+
+        GenerationCache first = GenerationCache.open(directory, options());
+        GenerationCache second = GenerationCache.open(directory, options("profile", "size"));
+        first.put(SAMPLE.getName(), "first", GENERATED);
+        second.put(SAMPLE.getName(), "second", GENERATED);
+        first.save();
+        second.save();
+
+        assertEquals(2, readManifest(directory).size());
+        assertNotNull(GenerationCache.open(directory, options()).get(SAMPLE.getName(), "first"));
+        assertNotNull(GenerationCache.open(directory, options("profile", "size")).get(SAMPLE.getName(), "second"));
+    }
+
+    private static FileDescriptorProto file(String name, String message, String... dependencies)
+    {
+        return FileDescriptorProto.newBuilder()
+                .setName(name)
+                .setPackage("cache.test")
+                .addAllDependency(Arrays.asList(dependencies))
+                .addMessageType(DescriptorProto.newBuilder().setName(message))
+                .build();
+    }
+
+    private static Map<String, FileDescriptorProto> byName(FileDescriptorProto... files)
+    {
+        Map<String, FileDescriptorProto> filesByName = new LinkedHashMap<>();
+        for (FileDescriptorProto file : files)
+        {
+            filesByName.put(file.getName(), file);
+        }
+        return filesByName;
+    }
+
+    private static GeneratorOptions options(String... parameters)
+    {
+        Map<String, String> generatorParameters = new HashMap<>();
+        for (int i = 0; i < parameters.length; i += 2)
+        {
+            generatorParameters.put(parameters[i], parameters[i + 1]);
+        }
+        return GeneratorOptions.fromParameters(generatorParameters);
+    }
+
+    private static void age(Path entry, long millis) throws IOException
+    {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis() - millis));
+    }
+
+    private static void writeManifest(Path directory, String name, String record) throws IOException
+    {
+        Properties manifest = new Properties();
+        manifest.setProperty(name, record);
+        try (OutputStream output = Files.newOutputStream(directory.resolve(GenerationCache.MANIFEST)))
+        {
+            manifest.store(output, null);
+        }
+    }
+
+    private static Properties readManifest(Path directory) throws IOException
+    {
+        Properties manifest = new Properties();
+        try (InputStream input = Files.newInputStream(directory.resolve(GenerationCache.MANIFEST)))
+        {
+            manifest.load(input);
+        }
+        return manifest;
+    }
+}
@@ -5,5 +5,9 @@ java=java
 if test -n "$JAVA_HOME"; then
     java="$JAVA_HOME/bin/java"
 fi
+# class data sharing archive built next to the plugin, ignored by JVMs it does not match
+if test -f "$MYSELF.jsa"; then
+    java_args="$java_args -XX:+IgnoreUnrecognizedVMOptions -XX:SharedArchiveFile=$MYSELF.jsa -Xshare:auto"
+fi
 exec "$java" $java_args -jar $MYSELF "$@"
 exit 1
\ No newline at end of file
@@ -0,0 +1,155 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the work the modeled runtime performs. Every modeled Monkey C function call, switch and
+ * dictionary lookup is a dispatch. Objects are class instances, Dictionaries, Strings and the Long
+ * and Double values Monkey C allocates on the heap, while arrays are Array and ByteArray allocations
+ * including the reallocations caused by add and addAll.
+ *
+ * @since 0.2.0
+ */
+public final class CostCounter
+{
+    private long objects;
+
+    private long arrays;
+
+    private long bytesCopied;
+
+    private long elementsCopied;
+
+    private long dispatches;
+
+    /**
+     * Counts a single object allocation
+     */
+    void object()
+    {
+        objects++;
+    }
+
+    /**
+     * Counts the provided number of object allocations
+     *
+     * @param count int number of objects
+     */
+    void objects(int count)
+    {
+        objects += count;
+    }
+
+    /**
+     * Counts a single Array or ByteArray allocation
+     */
+    void array()
+    {
+        arrays++;
+    }
+
+    /**
+     * Counts bytes copied between ByteArrays or into Strings
+     *
+     * @param count int number of bytes
+     */
+    void copyBytes(int count)
+    {
+        bytesCopied += count;
+    }
+
+    /**
+     * Counts Array elements moved into a reallocated Array
+     *
+     * @param count int number of elements
+     */
+    void copyElements(int count)
+    {
+        elementsCopied += count;
+    }
+
+    /**
+     * Counts a single function call, switch or dictionary lookup
+     */
+    void dispatch()
+    {
+        dispatches++;
+    }
+
+    /**
+     * Counts the provided number of dispatches
+     *
+     * @param count int number of dispatches
+     */
+    void dispatches(int count)
+    {
+        dispatches += count;
+    }
+
+    /**
+     * Resets all counters to zero
+     */
+    public void reset()
+    {
+        objects = 0;
+        arrays = 0;
+        bytesCopied = 0;
+        elementsCopied = 0;
+        dispatches = 0;
+    }
+
+    /**
+     * @return total number of object and array allocations
+     */
+    public long getAllocations()
+    {
+        return objects + arrays;
+    }
+
+    public long getObjects()
+    {
+        return objects;
+    }
+
+    public long getArrays()
+    {
+        return arrays;
+    }
+
+    public long getBytesCopied()
+    {
+        return bytesCopied;
+    }
+
+    public long getElementsCopied()
+    {
+        return elementsCopied;
+    }
+
+    public long getDispatches()
+    {
+        return dispatches;
+    }
+
+    /**
+     * @return the counters by name in a stable order
+     */
+    public Map<String, Long> toMap()
+    {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("allocations", getAllocations());
+        map.put("objects", objects);
+        map.put("arrays", arrays);
+        map.put("bytesCopied", bytesCopied);
+        map.put("elementsCopied", elementsCopied);
+        map.put("dispatches", dispatches);
+        return map;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toMap().toString();
+    }
+}
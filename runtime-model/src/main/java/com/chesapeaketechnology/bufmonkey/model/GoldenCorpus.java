@@ -0,0 +1,525 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import com.chesapeaketechnology.bufmonkey.generator.GeneratorOptions;
+import com.chesapeaketechnology.bufmonkey.generator.parser.ParserUtil;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Decodes a fixed corpus of payloads with the modeled runtime, with the interpreted ProtoDecoder and
+ * with the specialized decode functions, each with and without field projections, and with lazy
+ * message classes (indexing only). The counted work per message is compared against a golden file.
+ * Every payload is decoded twice into the same instance, the second decode ("Redecode" modes)
+ * measures the steady state of reused instances. The "Batch" modes decode a batch of length prefixed
+ * copies of the payload into one reused instance with ProtoBatchDecoder, and the "Compat" modes read
+ * fixed width values without decodeNumber for targets below SDK 3.0.0. Every mode also merges a second payload into a
+ * decoded message and checks the merged fields against protobuf-java. The check fails if any counter went up, so generator
+ * or runtime changes that add allocations, copies or dispatches to decoding show up in the build.
+ * Counters that went down are reported so the golden file can be updated with --update.
+ *
+ * Usage: GoldenCorpus &lt;golden file&gt; [--update]
+ *
+ * @since 0.2.0
+ */
+public final class GoldenCorpus
+{
+    private static final String PACKAGE = "corpus";
+
+    /**
+     * Projections of the projected modes, which keep a few fields of the scalar message and only the
+     * id of the nested message so that skipping of embedded messages is measured as well
+     */
+    private static final String PROJECTIONS = "projection." + PACKAGE + ".Scalars=f2+f5+f9,"
+            + "projection." + PACKAGE + ".Outer=id";
+
+    /**
+     * Number of messages of the batch modes
+     */
+    private static final int BATCH_SIZE = 8;
+
+    private GoldenCorpus()
+    {
+    }
+
+    public static void main(String[] args) throws IOException, Descriptors.DescriptorValidationException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: GoldenCorpus <golden file> [--update]");
+            System.exit(2);
+        }
+
+        Path goldenFile = Paths.get(args[0]);
+        boolean update = args.length > 1 && "--update".equals(args[1]);
+
+        Map<String, Long> results = run();
+        if (update)
+        {
+            write(goldenFile, results);
+            System.out.println("Updated " + goldenFile + " with " + results.size() + " entries");
+            return;
+        }
+
+        Map<String, Long> golden = read(goldenFile);
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, Long> result : results.entrySet())
+        {
+            Long expected = golden.get(result.getKey());
+            if (expected == null)
+            {
+                failures.add(result.getKey() + " is missing from the golden file");
+            } else if (result.getValue() > expected)
+            {
+                failures.add(result.getKey() + " went up from " + expected + " to " + result.getValue());
+            } else if (result.getValue() < expected)
+            {
+                System.out.println(result.getKey() + " went down from " + expected + " to " + result.getValue()
+                        + ", run with --update to lock in the improvement");
+            }
+        }
+
+        if (!failures.isEmpty())
+        {
+            failures.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println("Decode costs of " + results.size() + " corpus entries are within the golden file");
+    }
+
+    /**
+     * Decodes every corpus payload in every mode
+     *
+     * @return counters by "case.mode.counter" in a stable order
+     * @throws Descriptors.DescriptorValidationException if a corpus descriptor is invalid
+     */
+    public static Map<String, Long> run() throws Descriptors.DescriptorValidationException
+    {
+        FileDescriptorProto file = corpusFile();
+        Descriptors.FileDescriptor descriptor = Descriptors.FileDescriptor.buildFrom(file, new Descriptors.FileDescriptor[0]);
+
+        Map<String, DynamicMessage> payloads = new TreeMap<>();
+        payloads.put("test1", test1(descriptor.findMessageTypeByName("Test1")));
+        payloads.put("scalars", scalars(descriptor.findMessageTypeByName("Scalars")));
+        payloads.put("packed", packed(descriptor.findMessageTypeByName("Packed")));
+        payloads.put("nested", nested(descriptor.findMessageTypeByName("Outer")));
+
+        Map<String, String> modes = new TreeMap<>();
+        modes.put("interpreted", "");
+        modes.put("specialized", "specializedDecode");
+        modes.put("interpretedProjected", PROJECTIONS);
+        modes.put("specializedProjected", "specializedDecode," + PROJECTIONS);
+        modes.put("lazy", "lazyDecode");
+        modes.put("interpretedPreserved", "preserveUnknownFields," + PROJECTIONS);
+        modes.put("specializedPreserved", "specializedDecode,preserveUnknownFields," + PROJECTIONS);
+        modes.put("lazyPreserved", "lazyDecode,preserveUnknownFields," + PROJECTIONS);
+        modes.put("interpretedCompat", "minSdkVersion=2.4.0");
+        modes.put("specializedCompat", "specializedDecode,minSdkVersion=2.4.0");
+
+        Map<String, Long> results = new TreeMap<>();
+        CostCounter counter = new CostCounter();
+        for (Map.Entry<String, String> mode : modes.entrySet())
+        {
+            GeneratorOptions options = GeneratorOptions.fromParameters(ParserUtil.parseGeneratorParameters(mode.getValue()));
+            ModelSchema schema = ModelSchema.fromFiles(Collections.singletonList(file), options);
+            for (Map.Entry<String, DynamicMessage> payload : payloads.entrySet())
+            {
+                DynamicMessage value = payload.getValue();
+                Set<Integer> projected = new HashSet<>();
+                options.getProjectedFields(PACKAGE, value.getDescriptorForType().toProto())
+                        .forEach(field -> projected.add(field.getNumber()));
+                long expectedFields = value.getAllFields().keySet().stream()
+                        .filter(field -> projected.contains(field.getNumber()))
+                        .count();
+                DynamicMessage.Builder unknown = value.toBuilder();
+                value.getAllFields().keySet().stream()
+                        .filter(field -> projected.contains(field.getNumber()))
+                        .forEach(unknown::clearField);
+                int expectedUnknown = schema.isPreserveUnknownFields() ? unknown.build().getSerializedSize() : 0;
+
+                counter.reset();
+                ModelMessage message = schema.decode(value.getDescriptorForType().getFullName(), value.toByteArray(), counter);
+                for (Map.Entry<String, Long> cost : counter.toMap().entrySet())
+                {
+                    results.put(payload.getKey() + "." + mode.getKey() + "." + cost.getKey(), cost.getValue());
+                }
+                check(message, expectedFields, expectedUnknown, payload.getKey() + " in " + mode.getKey() + " mode");
+
+                counter.reset();
+                message.decode(value.toByteArray());
+                for (Map.Entry<String, Long> cost : counter.toMap().entrySet())
+                {
+                    results.put(payload.getKey() + "." + mode.getKey() + "Redecode." + cost.getKey(), cost.getValue());
+                }
+                check(message, expectedFields, expectedUnknown, payload.getKey() + " decoded again in " + mode.getKey() + " mode");
+
+                counter.reset();
+                message = schema.decodeBatch(value.getDescriptorForType().getFullName(), batch(value), counter);
+                for (Map.Entry<String, Long> cost : counter.toMap().entrySet())
+                {
+                    results.put(payload.getKey() + "." + mode.getKey() + "Batch." + cost.getKey(), cost.getValue());
+                }
+                check(message, expectedFields, expectedUnknown, payload.getKey() + " decoded in a batch in " + mode.getKey() + " mode");
+            }
+
+            checkMerge(schema, options, payloads.get("test1"), test1Update(descriptor.findMessageTypeByName("Test1")),
+                    "test1 merged in " + mode.getKey() + " mode");
+            checkMerge(schema, options, payloads.get("nested"), nestedUpdate(descriptor.findMessageTypeByName("Outer")),
+                    "nested merged in " + mode.getKey() + " mode");
+        }
+        return results;
+    }
+
+    /**
+     * Decodes the first payload and merges the second one into the same instance with mergeFrom. The
+     * fields must match the ones protobuf-java merges: singular values of the second payload replace
+     * the first ones, repeated values are appended and embedded messages are merged. The work is not
+     * counted.
+     */
+    private static void checkMerge(ModelSchema schema, GeneratorOptions options, DynamicMessage first,
+                                   DynamicMessage second, String description)
+    {
+        ModelMessage message = schema.decode(first.getDescriptorForType().getFullName(), first.toByteArray(), new CostCounter());
+        message.mergeFrom(second.toByteArray());
+        checkValues(message, first.toBuilder().mergeFrom(second).build(), options, description);
+    }
+
+    /**
+     * Compares the projected fields of a decoded message with the expected message, embedded messages
+     * field by field and repeated and map fields by their number of values
+     */
+    private static void checkValues(ModelMessage message, DynamicMessage expected, GeneratorOptions options, String description)
+    {
+        message.materializeAll();
+        Descriptors.Descriptor type = expected.getDescriptorForType();
+        for (FieldDescriptorProto field : options.getProjectedFields(PACKAGE, type.toProto()))
+        {
+            Descriptors.FieldDescriptor fieldDescriptor = type.findFieldByNumber(field.getNumber());
+            Object value = message.getValue(field.getNumber());
+            String name = description + ", field " + fieldDescriptor.getFullName();
+            if (fieldDescriptor.isRepeated())
+            {
+                int count = expected.getRepeatedFieldCount(fieldDescriptor);
+                if (!Objects.equals(count == 0 ? null : count, value))
+                {
+                    throw new ModelException(name + " has " + value + " instead of " + count + " values");
+                }
+            } else if (!expected.hasField(fieldDescriptor))
+            {
+                if (value != null)
+                {
+                    throw new ModelException(name + " is set to " + value + " instead of not set");
+                }
+            } else if (fieldDescriptor.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE)
+            {
+                if (!(value instanceof ModelMessage))
+                {
+                    throw new ModelException(name + " is not set");
+                }
+                checkValues((ModelMessage) value, (DynamicMessage) expected.getField(fieldDescriptor), options, name);
+            } else if (!expected.getField(fieldDescriptor).equals(value))
+            {
+                throw new ModelException(name + " is " + value + " instead of " + expected.getField(fieldDescriptor));
+            }
+        }
+    }
+
+    /**
+     * Writes BATCH_SIZE length prefixed copies of the message, the framing of writeDelimitedTo
+     */
+    private static byte[] batch(DynamicMessage value)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            for (int i = 0; i < BATCH_SIZE; i++)
+            {
+                value.writeDelimitedTo(out);
+            }
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks that the expected number of fields was decoded and that every other field was kept as
+     * unknown bytes. The fields of lazy messages are decoded first, after their costs have been
+     * recorded, so the lazy costs only cover indexing.
+     */
+    private static void check(ModelMessage message, long expectedFields, int expectedUnknown, String description)
+    {
+        message.materializeAll();
+        if (message.getFieldCount() != expectedFields)
+        {
+            throw new ModelException(description + " decoded " + message.getFieldCount() + " of "
+                    + expectedFields + " fields");
+        }
+        if (message.getUnknownFieldsSize() != expectedUnknown)
+        {
+            throw new ModelException(description + " kept " + message.getUnknownFieldsSize() + " of "
+                    + expectedUnknown + " unknown bytes");
+        }
+    }
+
+    private static Map<String, Long> read(Path goldenFile) throws IOException
+    {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(goldenFile, StandardCharsets.UTF_8))
+        {
+            properties.load(reader);
+        }
+
+        Map<String, Long> golden = new TreeMap<>();
+        for (String key : properties.stringPropertyNames())
+        {
+            golden.put(key, Long.parseLong(properties.getProperty(key).trim()));
+        }
+        return golden;
+    }
+
+    private static void write(Path goldenFile, Map<String, Long> results) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("# Decode costs per message of the runtime model corpus, see GoldenCorpus");
+        lines.add("# Regenerate with ./gradlew :runtime-model:updateGoldenCorpus");
+        results.forEach((key, value) -> lines.add(key + "=" + value));
+        if (goldenFile.getParent() != null)
+        {
+            Files.createDirectories(goldenFile.getParent());
+        }
+        Files.write(goldenFile, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the corpus proto file
+     */
+    private static FileDescriptorProto corpusFile()
+    {
+        DescriptorProto test1 = DescriptorProto.newBuilder().setName("Test1")
+                .addField(field("a", 1, FieldDescriptorProto.Type.TYPE_SINT64, false))
+                .addField(field("b", 2, FieldDescriptorProto.Type.TYPE_SINT64, false))
+                .addField(field("c", 3, FieldDescriptorProto.Type.TYPE_DOUBLE, false))
+                .addField(field("d", 4, FieldDescriptorProto.Type.TYPE_STRING, false))
+                .build();
+
+        List<FieldDescriptorProto.Type> scalarTypes = Arrays.asList(
+                FieldDescriptorProto.Type.TYPE_DOUBLE, FieldDescriptorProto.Type.TYPE_FLOAT,
+                FieldDescriptorProto.Type.TYPE_INT64, FieldDescriptorProto.Type.TYPE_UINT64,
+                FieldDescriptorProto.Type.TYPE_INT32, FieldDescriptorProto.Type.TYPE_FIXED64,
+                FieldDescriptorProto.Type.TYPE_FIXED32, FieldDescriptorProto.Type.TYPE_BOOL,
+                FieldDescriptorProto.Type.TYPE_STRING, FieldDescriptorProto.Type.TYPE_BYTES,
+                FieldDescriptorProto.Type.TYPE_UINT32, FieldDescriptorProto.Type.TYPE_ENUM,
+                FieldDescriptorProto.Type.TYPE_SFIXED32, FieldDescriptorProto.Type.TYPE_SINT32,
+                FieldDescriptorProto.Type.TYPE_SINT64);
+        DescriptorProto.Builder scalars = DescriptorProto.newBuilder().setName("Scalars");
+        for (int i = 0; i < scalarTypes.size(); i++)
+        {
+            FieldDescriptorProto.Builder field = field("f" + (i + 1), i + 1, scalarTypes.get(i), false);
+            if (scalarTypes.get(i) == FieldDescriptorProto.Type.TYPE_ENUM)
+            {
+                field.setTypeName("." + PACKAGE + ".Kind");
+            }
+            scalars.addField(field);
+        }
+
+        DescriptorProto packed = DescriptorProto.newBuilder().setName("Packed")
+                .addField(field("samples", 1, FieldDescriptorProto.Type.TYPE_SINT32, true))
+                .addField(field("readings", 2, FieldDescriptorProto.Type.TYPE_FLOAT, true))
+                .addField(field("values", 3, FieldDescriptorProto.Type.TYPE_DOUBLE, true))
+                .addField(field("ids", 4, FieldDescriptorProto.Type.TYPE_INT64, true))
+                .addField(field("tags", 5, FieldDescriptorProto.Type.TYPE_STRING, true))
+                .build();
+
+        DescriptorProto inner = DescriptorProto.newBuilder().setName("Inner")
+                .addField(field("x", 1, FieldDescriptorProto.Type.TYPE_INT32, false))
+                .addField(field("label", 2, FieldDescriptorProto.Type.TYPE_STRING, false))
+                .build();
+        DescriptorProto outer = DescriptorProto.newBuilder().setName("Outer")
+                .addField(field("inner", 1, FieldDescriptorProto.Type.TYPE_MESSAGE, false).setTypeName("." + PACKAGE + ".Inner"))
+                .addField(field("items", 2, FieldDescriptorProto.Type.TYPE_MESSAGE, true).setTypeName("." + PACKAGE + ".Inner"))
+                .addField(field("id", 3, FieldDescriptorProto.Type.TYPE_INT32, false))
+                .addField(field("text", 4, FieldDescriptorProto.Type.TYPE_STRING, false).setOneofIndex(0))
+                .addField(field("detail", 5, FieldDescriptorProto.Type.TYPE_MESSAGE, false).setTypeName("." + PACKAGE + ".Inner").setOneofIndex(0))
+                .addField(field("counts", 6, FieldDescriptorProto.Type.TYPE_MESSAGE, true).setTypeName("." + PACKAGE + ".Outer.CountsEntry"))
+                .addOneofDecl(OneofDescriptorProto.newBuilder().setName("body"))
+                .addNestedType(DescriptorProto.newBuilder().setName("CountsEntry")
+                        .addField(field("key", 1, FieldDescriptorProto.Type.TYPE_STRING, false))
+                        .addField(field("value", 2, FieldDescriptorProto.Type.TYPE_INT32, false))
+                        .setOptions(MessageOptions.newBuilder().setMapEntry(true)))
+                .build();
+
+        return FileDescriptorProto.newBuilder()
+                .setName("corpus.proto")
+                .setPackage(PACKAGE)
+                .setSyntax("proto3")
+                .addEnumType(EnumDescriptorProto.newBuilder().setName("Kind")
+                        .addValue(EnumValueDescriptorProto.newBuilder().setName("NONE").setNumber(0))
+                        .addValue(EnumValueDescriptorProto.newBuilder().setName("SOME").setNumber(1)))
+                .addMessageType(test1)
+                .addMessageType(scalars)
+                .addMessageType(packed)
+                .addMessageType(inner)
+                .addMessageType(outer)
+                .build();
+    }
+
+    private static DynamicMessage test1(Descriptors.Descriptor type)
+    {
+        return DynamicMessage.newBuilder(type)
+                .setField(type.findFieldByName("a"), -150L)
+                .setField(type.findFieldByName("b"), 1L << 40)
+                .setField(type.findFieldByName("c"), 3.14159d)
+                .setField(type.findFieldByName("d"), "BufMonkey")
+                .build();
+    }
+
+    private static DynamicMessage scalars(Descriptors.Descriptor type)
+    {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+        for (Descriptors.FieldDescriptor field : type.getFields())
+        {
+            builder.setField(field, scalarValue(field, field.getNumber()));
+        }
+        return builder.build();
+    }
+
+    private static DynamicMessage packed(Descriptors.Descriptor type)
+    {
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type);
+        for (Descriptors.FieldDescriptor field : type.getFields())
+        {
+            for (int i = 1; i <= 8; i++)
+            {
+                builder.addRepeatedField(field, scalarValue(field, i * 37));
+            }
+        }
+        return builder.build();
+    }
+
+    private static DynamicMessage nested(Descriptors.Descriptor type)
+    {
+        Descriptors.Descriptor innerType = type.findFieldByName("inner").getMessageType();
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type)
+                .setField(type.findFieldByName("inner"), inner(innerType, 0))
+                .setField(type.findFieldByName("id"), 42)
+                .setField(type.findFieldByName("detail"), inner(innerType, 6));
+        Descriptors.Descriptor entryType = type.findFieldByName("counts").getMessageType();
+        for (int i = 1; i <= 5; i++)
+        {
+            builder.addRepeatedField(type.findFieldByName("items"), inner(innerType, i));
+            builder.addRepeatedField(type.findFieldByName("counts"), DynamicMessage.newBuilder(entryType)
+                    .setField(entryType.findFieldByName("key"), "key " + i)
+                    .setField(entryType.findFieldByName("value"), i * 100)
+                    .build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Changes two of the four fields of the test1 payload when it is merged
+     */
+    private static DynamicMessage test1Update(Descriptors.Descriptor type)
+    {
+        return DynamicMessage.newBuilder(type)
+                .setField(type.findFieldByName("b"), 7L)
+                .setField(type.findFieldByName("d"), "merged")
+                .build();
+    }
+
+    /**
+     * Merges a label into the embedded message of the nested payload, appends items and map entries and
+     * switches the oneof to the other member, leaving the id untouched
+     */
+    private static DynamicMessage nestedUpdate(Descriptors.Descriptor type)
+    {
+        Descriptors.Descriptor innerType = type.findFieldByName("inner").getMessageType();
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(type)
+                .setField(type.findFieldByName("inner"), DynamicMessage.newBuilder(innerType)
+                        .setField(innerType.findFieldByName("label"), "merged")
+                        .build())
+                .setField(type.findFieldByName("text"), "merged");
+        Descriptors.Descriptor entryType = type.findFieldByName("counts").getMessageType();
+        for (int i = 6; i <= 7; i++)
+        {
+            builder.addRepeatedField(type.findFieldByName("items"), inner(innerType, i));
+            builder.addRepeatedField(type.findFieldByName("counts"), DynamicMessage.newBuilder(entryType)
+                    .setField(entryType.findFieldByName("key"), "key " + i)
+                    .setField(entryType.findFieldByName("value"), i * 100)
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private static DynamicMessage inner(Descriptors.Descriptor type, int index)
+    {
+        return DynamicMessage.newBuilder(type)
+                .setField(type.findFieldByName("x"), 1000 + index)
+                .setField(type.findFieldByName("label"), "item " + index)
+                .build();
+    }
+
+    /**
+     * Returns a non-default value of the field type derived from the seed
+     */
+    private static Object scalarValue(Descriptors.FieldDescriptor field, int seed)
+    {
+        switch (field.getJavaType())
+        {
+            case INT:
+                return field.getType() == Descriptors.FieldDescriptor.Type.SINT32 ? -seed * 1000 : seed * 1000;
+            case LONG:
+                return (long) seed << 33;
+            case FLOAT:
+                return seed / 3f;
+            case DOUBLE:
+                return seed / 7d;
+            case BOOLEAN:
+                return true;
+            case STRING:
+                return "value " + seed;
+            case BYTE_STRING:
+                return ByteString.copyFromUtf8("bytes " + seed);
+            case ENUM:
+                return field.getEnumType().findValueByNumber(1);
+            default:
+                throw new IllegalArgumentException("Unsupported corpus field: " + field.getFullName());
+        }
+    }
+
+    private static FieldDescriptorProto.Builder field(String name, int number, FieldDescriptorProto.Type type, boolean repeated)
+    {
+        return FieldDescriptorProto.newBuilder()
+                .setName(name)
+                .setNumber(number)
+                .setType(type)
+                .setLabel(repeated ? FieldDescriptorProto.Label.LABEL_REPEATED : FieldDescriptorProto.Label.LABEL_OPTIONAL);
+    }
+}
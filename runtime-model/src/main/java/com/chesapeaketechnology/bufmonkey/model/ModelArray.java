@@ -0,0 +1,96 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import java.util.Arrays;
+
+/**
+ * Model of a Monkey C Array. add and addAll return the array like they do on the device and are
+ * counted as a reallocation that moves the existing elements.
+ *
+ * @since 0.2.0
+ */
+final class ModelArray
+{
+    private final CostCounter counter;
+
+    private Object[] elements;
+
+    private ModelArray(CostCounter counter, Object[] elements)
+    {
+        this.counter = counter;
+        this.elements = elements;
+    }
+
+    /**
+     * Models new [size]
+     *
+     * @param counter {@link CostCounter} to count the work with
+     * @param size    int number of null elements
+     * @return {@link ModelArray}
+     */
+    static ModelArray newArray(CostCounter counter, int size)
+    {
+        counter.array();
+        return new ModelArray(counter, new Object[size]);
+    }
+
+    /**
+     * Models the [value] literal
+     *
+     * @param counter {@link CostCounter} to count the work with
+     * @param value   the single element
+     * @return {@link ModelArray}
+     */
+    static ModelArray of(CostCounter counter, Object value)
+    {
+        counter.array();
+        return new ModelArray(counter, new Object[]{value});
+    }
+
+    int size()
+    {
+        return elements.length;
+    }
+
+    Object get(int index)
+    {
+        return elements[index];
+    }
+
+    void set(int index, Object value)
+    {
+        elements[index] = value;
+    }
+
+    /**
+     * Models arr.add(value)
+     *
+     * @param value element to add
+     * @return this array
+     */
+    ModelArray add(Object value)
+    {
+        counter.dispatch();
+        counter.array();
+        counter.copyElements(elements.length);
+        elements = Arrays.copyOf(elements, elements.length + 1);
+        elements[elements.length - 1] = value;
+        return this;
+    }
+
+    /**
+     * Models arr.addAll(other)
+     *
+     * @param other {@link ModelArray} elements to add
+     * @return this array
+     */
+    ModelArray addAll(ModelArray other)
+    {
+        counter.dispatch();
+        counter.array();
+        counter.copyElements(elements.length + other.elements.length);
+        int oldLength = elements.length;
+        elements = Arrays.copyOf(elements, oldLength + other.elements.length);
+        System.arraycopy(other.elements, 0, elements, oldLength, other.elements.length);
+        return this;
+    }
+}
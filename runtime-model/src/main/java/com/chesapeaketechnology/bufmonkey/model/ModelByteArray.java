@@ -0,0 +1,163 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Model of a Monkey C ByteArray. Elements read as unsigned values from 0 to 255 like they do on the
+ * device, slice copies into a new ByteArray and decodeNumber builds an options Dictionary per call.
+ *
+ * @since 0.2.0
+ */
+final class ModelByteArray
+{
+    private final CostCounter counter;
+
+    private final byte[] data;
+
+    /**
+     * Wraps bytes that already exist, ie. the payload handed to decode, without counting an allocation
+     *
+     * @param counter {@link CostCounter} to count the work with
+     * @param data    byte[] contents
+     */
+    ModelByteArray(CostCounter counter, byte[] data)
+    {
+        this.counter = counter;
+        this.data = data;
+    }
+
+    /**
+     * @return number of bytes
+     */
+    int size()
+    {
+        return data.length;
+    }
+
+    /**
+     * Models buf[index]
+     *
+     * @param index int index
+     * @return unsigned byte value
+     */
+    int get(int index)
+    {
+        return data[index] & 0xFF;
+    }
+
+    /**
+     * Models buf.slice(start, end) which allocates a new ByteArray and copies the range into it
+     *
+     * @param start int start index (inclusive)
+     * @param end   int end index (exclusive)
+     * @return {@link ModelByteArray} copy of the range
+     */
+    ModelByteArray slice(int start, int end)
+    {
+        counter.dispatch();
+        counter.array();
+        counter.copyBytes(end - start);
+        return new ModelByteArray(counter, Arrays.copyOfRange(data, start, end));
+    }
+
+    /**
+     * Models buf.add(value) on a ByteArray, which reallocates the array with one more element
+     *
+     * @param value int byte value
+     * @return {@link ModelByteArray} the grown array
+     */
+    ModelByteArray add(int value)
+    {
+        counter.dispatch();
+        counter.array();
+        counter.copyBytes(data.length);
+        byte[] grown = Arrays.copyOf(data, data.length + 1);
+        grown[data.length] = (byte) value;
+        return new ModelByteArray(counter, grown);
+    }
+
+    /**
+     * Models arr.addAll(other) on a ByteArray, which reallocates the array with the other elements
+     * appended
+     *
+     * @param other {@link ModelByteArray} bytes to append
+     * @return {@link ModelByteArray} the grown array
+     */
+    ModelByteArray addAll(ModelByteArray other)
+    {
+        counter.dispatch();
+        counter.array();
+        counter.copyBytes(data.length + other.data.length);
+        byte[] grown = Arrays.copyOf(data, data.length + other.data.length);
+        System.arraycopy(other.data, 0, grown, data.length, other.data.length);
+        return new ModelByteArray(counter, grown);
+    }
+
+    /**
+     * Models buf.decodeNumber(Lang.NUMBER_FORMAT_UINT32, {:offset => offset, :endianness => Lang.ENDIAN_LITTLE}).
+     * The options Dictionary literal is allocated on every call.
+     *
+     * @param offset int offset
+     * @return unsigned value truncated to a 32 bit Monkey C Number
+     */
+    int decodeUint32LE(int offset)
+    {
+        return decodeInt32LE(offset);
+    }
+
+    /**
+     * Models buf.decodeNumber(Lang.NUMBER_FORMAT_SINT32, {:offset => offset, :endianness => Lang.ENDIAN_LITTLE})
+     *
+     * @param offset int offset
+     * @return signed value
+     */
+    int decodeInt32LE(int offset)
+    {
+        counter.dispatch();
+        counter.object();
+        return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    /**
+     * Models ProtoUtils.readInt32LECompat, which reads the four bytes one at a time without
+     * decodeNumber or an options Dictionary
+     *
+     * @param offset int offset
+     * @return signed value
+     */
+    int readInt32LECompat(int offset)
+    {
+        counter.dispatch();
+        return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    /**
+     * Models buf.decodeNumber(Lang.NUMBER_FORMAT_FLOAT, {:offset => offset, :endianness => Lang.ENDIAN_LITTLE})
+     *
+     * @param offset int offset
+     * @return float value
+     */
+    float decodeFloatLE(int offset)
+    {
+        counter.dispatch();
+        counter.object();
+        return ByteBuffer.wrap(data, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+    }
+
+    /**
+     * Models StringUtil.convertEncodedString(buf, {...}) which builds an options Dictionary and a
+     * String that holds a copy of the bytes
+     *
+     * @return String decoded as UTF-8
+     */
+    String convertToString()
+    {
+        counter.dispatch();
+        counter.objects(2);
+        counter.copyBytes(data.length);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+/**
+ * Thrown when the modeled runtime reaches a state in which the Monkey C code would fail on the device
+ *
+ * @since 0.2.0
+ */
+public class ModelException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public ModelException(String message)
+    {
+        super(message);
+    }
+}
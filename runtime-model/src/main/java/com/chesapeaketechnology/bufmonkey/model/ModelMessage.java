@@ -0,0 +1,611 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import com.chesapeaketechnology.bufmonkey.generator.FieldUtil;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Model of an instance of a generated message class together with the BufMonkeyType functions it
+ * inherits. The generated clear, setValue, createMessage, decodeMapEntry and decodeFrom functions are modeled case by
+ * case as the generator writes them (see MonkeyWriter).
+ *
+ * @since 0.2.0
+ */
+public final class ModelMessage
+{
+    private final ModelSchema schema;
+
+    private final ModelType type;
+
+    private final CostCounter counter;
+
+    private final Map<Integer, Object> values = new HashMap<>();
+
+    /**
+     * Spare members of the generated class, see FieldUtil.getSpareName
+     */
+    private final Map<Integer, Object> spares = new HashMap<>();
+
+    /**
+     * The generated unknownFields member
+     */
+    private ModelByteArray unknownFields;
+
+    /**
+     * Payload and index of a lazy message class, see LazyBufMonkeyType
+     */
+    private ModelByteArray lazyBuf;
+
+    private Map<Integer, int[]> lazyIndex;
+
+    /**
+     * Models new T(), which calls the generated initialize and BufMonkeyType.initialize
+     */
+    ModelMessage(ModelSchema schema, ModelType type, CostCounter counter)
+    {
+        counter.object();
+        counter.dispatches(2);
+        this.schema = schema;
+        this.type = type;
+        this.counter = counter;
+    }
+
+    /**
+     * @return fully qualified message name
+     */
+    public String getTypeName()
+    {
+        return type.name;
+    }
+
+    /**
+     * Returns the decoded value of a field, without counting any work
+     *
+     * @param fieldNumber int field number
+     * @return the value, a {@link ModelMessage} for embedded messages, the number of elements or entries
+     * for repeated and map fields, or null if it is not set
+     */
+    public Object getValue(int fieldNumber)
+    {
+        Object value = values.get(fieldNumber);
+        if (value instanceof Map)
+        {
+            return ((Map<?, ?>) value).size();
+        }
+        return value instanceof ModelArray ? ((ModelArray) value).size() : value;
+    }
+
+    /**
+     * @return number of bytes of unknown fields that are kept, see GeneratorOptions.isPreserveUnknownFields
+     */
+    public int getUnknownFieldsSize()
+    {
+        return unknownFields == null ? 0 : unknownFields.size();
+    }
+
+    /**
+     * @return number of fields that are set
+     */
+    public int getFieldCount()
+    {
+        return values.size();
+    }
+
+    /**
+     * Models getDescriptor which returns the class level DESCRIPTOR
+     */
+    Map<Integer, Integer> getDescriptor()
+    {
+        counter.dispatch();
+        return type.descriptorTable;
+    }
+
+    /**
+     * Models BufMonkeyType.decode, which clears the message and decodes the payload into it
+     *
+     * @param payload byte[] encoded message
+     */
+    public void decode(byte[] payload)
+    {
+        // decode and bytes.size()
+        counter.dispatches(2);
+        clear();
+        decodeFrom(new ModelReader(counter, new ModelByteArray(counter, payload), 0, payload.length));
+    }
+
+    /**
+     * Models BufMonkeyType.mergeFrom, which decodes the payload into the current fields
+     *
+     * @param payload byte[] encoded message
+     */
+    public void mergeFrom(byte[] payload)
+    {
+        // mergeFrom and bytes.size()
+        counter.dispatches(2);
+        decodeFrom(new ModelReader(counter, new ModelByteArray(counter, payload), 0, payload.length));
+    }
+
+    /**
+     * Models the generated clear function, which moves reusable values to their spare members
+     */
+    void clear()
+    {
+        counter.dispatch();
+        if (schema.isLazyDecode())
+        {
+            // clearIndex, and lazyIndex.size() per iteration
+            counter.dispatch();
+            lazyBuf = null;
+            if (lazyIndex != null)
+            {
+                counter.dispatches(type.fields.size() * 2 + 1);
+                lazyIndex.clear();
+            }
+        }
+        for (FieldDescriptorProto field : type.fields.values())
+        {
+            Object value = values.remove(field.getNumber());
+            if (value != null && FieldUtil.isReusable(field) && !type.mapEntries.containsKey(field.getNumber()))
+            {
+                spares.put(field.getNumber(), value);
+            }
+        }
+        unknownFields = null;
+    }
+
+    /**
+     * Models the generated setValue function
+     */
+    void setValue(int position, Object value)
+    {
+        counter.dispatches(2);
+        FieldDescriptorProto field = type.fields.get(position);
+        if (field == null)
+        {
+            return;
+        }
+
+        if (FieldUtil.isRepeated(field))
+        {
+            values.put(position, appendValue((ModelArray) values.get(position), value));
+        } else
+        {
+            setField(field, value);
+        }
+    }
+
+    /**
+     * Models the generated createMessage function
+     */
+    ModelMessage createMessage(int position)
+    {
+        counter.dispatches(2);
+        FieldDescriptorProto field = type.fields.get(position);
+        if (field == null || !FieldUtil.isMessage(field))
+        {
+            return null;
+        }
+
+        ModelMessage message;
+        if (FieldUtil.isRepeated(field))
+        {
+            ModelArray array = (ModelArray) values.get(position);
+            if (array != null)
+            {
+                counter.dispatch();
+            }
+            message = reuseMessage(position, array == null ? 0 : array.size());
+        } else
+        {
+            message = reuseMessage(position);
+        }
+        return message != null ? message : schema.newMessage(field.getTypeName(), counter);
+    }
+
+    /**
+     * Models decodeFrom, which is either the generated specialized function or the interpreted one
+     * inherited from BufMonkeyType
+     */
+    void decodeFrom(ModelReader reader)
+    {
+        counter.dispatch();
+        if (schema.isLazyDecode())
+        {
+            indexLazy(reader);
+        } else if (schema.isSpecializedDecode())
+        {
+            decodeSpecialized(reader);
+        } else if (schema.isPreserveUnknownFields() || !schema.isNativeNumbers())
+        {
+            // the generated decodeFrom of MonkeyWriter.writeInterpretedDecodeFunction
+            ModelProtoDecoder decoder = new ModelProtoDecoder(counter, getDescriptor());
+            if (schema.isPreserveUnknownFields())
+            {
+                decoder.keepUnknownFields();
+            }
+            if (!schema.isNativeNumbers())
+            {
+                decoder.compatNumbers();
+            }
+            decoder.decodeRange(reader.buf, reader.pos, reader.limit, this);
+            reader.pos = reader.limit;
+        } else
+        {
+            new ModelProtoDecoder(counter, getDescriptor()).decodeRange(reader.buf, reader.pos, reader.limit, this);
+            reader.pos = reader.limit;
+        }
+    }
+
+    /**
+     * Models the body of the decodeFrom function written by MonkeyWriter.writeDecodeFunction
+     */
+    private void decodeSpecialized(ModelReader reader)
+    {
+        while (reader.pos < reader.limit)
+        {
+            int start = reader.pos;
+            decodeField(reader.readVarint(), reader, start);
+        }
+    }
+
+    /**
+     * Models LazyBufMonkeyType.decodeFrom, which records the start and end offsets of every field
+     */
+    private void indexLazy(ModelReader reader)
+    {
+        if (lazyBuf != null)
+        {
+            materializeAll();
+        }
+        lazyBuf = reader.buf;
+        if (lazyIndex == null)
+        {
+            // getLazyIndexSize
+            counter.dispatch();
+            counter.array();
+            lazyIndex = new HashMap<>();
+        }
+
+        while (reader.pos < reader.limit)
+        {
+            int start = reader.pos;
+            int tag = reader.readVarint();
+            reader.skipField(tag);
+            Integer slot = getLazySlot(tag);
+            if (slot != null)
+            {
+                lazyIndex.computeIfAbsent(slot, key -> new int[]{start, 0})[1] = reader.pos;
+            } else if (schema.isPreserveUnknownFields())
+            {
+                addUnknownField(reader.buf, start, reader.pos);
+            }
+        }
+    }
+
+    /**
+     * Models LazyBufMonkeyType.materializeAll, which decodes every indexed field
+     */
+    public void materializeAll()
+    {
+        counter.dispatch();
+        if (lazyIndex == null)
+        {
+            return;
+        }
+        for (int slot = 0; slot < type.fields.size() * 2; slot += 2)
+        {
+            // lazyIndex.size()
+            counter.dispatch();
+            materialize(slot);
+        }
+        counter.dispatch();
+    }
+
+    /**
+     * Models LazyBufMonkeyType.materialize, which decodes the field of a slot from its indexed range
+     */
+    private void materialize(int slot)
+    {
+        counter.dispatch();
+        int[] range = lazyIndex.remove(slot);
+        if (range == null)
+        {
+            return;
+        }
+
+        ModelReader reader = new ModelReader(counter, lazyBuf, range[0], range[1]);
+        while (reader.pos < reader.limit)
+        {
+            int tag = reader.readVarint();
+            Integer tagSlot = getLazySlot(tag);
+            if (tagSlot != null && tagSlot == slot)
+            {
+                // decodeLazyField
+                counter.dispatch();
+                decodeField(tag, reader, -1);
+            } else
+            {
+                reader.skipField(tag);
+            }
+        }
+    }
+
+    /**
+     * Models the generated getLazySlot function
+     *
+     * @return slot of the field with the provided tag, or null for -1
+     */
+    private Integer getLazySlot(int tag)
+    {
+        counter.dispatches(2);
+        ModelType.DecodeCase decodeCase = type.decodeCases.get(tag);
+        return decodeCase == null ? null : type.lazySlots.get(decodeCase.field.getNumber());
+    }
+
+    /**
+     * Models a single pass of the switch statement written by MonkeyWriter.writeDecodeSwitch
+     *
+     * @param start int offset of the tag, which unknown fields are kept from, or -1 in decodeLazyField
+     */
+    private void decodeField(int tag, ModelReader reader, int start)
+    {
+        counter.dispatch();
+        ModelType.DecodeCase decodeCase = type.decodeCases.get(tag);
+        if (decodeCase == null)
+        {
+            reader.skipField(tag);
+            if (start >= 0 && schema.isPreserveUnknownFields())
+            {
+                addUnknownField(reader.buf, start, reader.pos);
+            }
+            return;
+        }
+
+        int number = decodeCase.field.getNumber();
+        if (type.mapEntries.containsKey(number))
+        {
+            int limit = reader.pushLimit(reader.readVarint());
+            decodeMapEntry(number, reader);
+            reader.popLimit(limit);
+        } else if (decodeCase.packed)
+        {
+            int limit = reader.pushLimit(reader.readVarint());
+            ModelArray array = (ModelArray) values.get(number);
+            int i = 0;
+            if (array != null)
+            {
+                counter.dispatch();
+                i = array.size();
+            }
+            array = reuseArray(array, (ModelArray) spares.get(number), reader.countPacked(FieldUtil.getWireType(decodeCase.field)));
+            while (reader.pos < reader.limit)
+            {
+                array.set(i, reader.read(decodeCase.readFunction));
+                i++;
+            }
+            values.put(number, array);
+            reader.popLimit(limit);
+        } else if (FieldUtil.isMessage(decodeCase.field))
+        {
+            int limit = reader.pushLimit(reader.readVarint());
+            if (FieldUtil.isRepeated(decodeCase.field))
+            {
+                ModelArray array = initializeArray(number);
+                counter.dispatch();
+                ModelMessage message = reuseMessage(number, array.size());
+                if (message == null)
+                {
+                    message = schema.newMessage(decodeCase.field.getTypeName(), counter);
+                }
+                message.decodeFrom(reader);
+                array.add(message);
+            } else
+            {
+                ModelMessage message = reuseMessage(number);
+                if (message == null)
+                {
+                    message = schema.newMessage(decodeCase.field.getTypeName(), counter);
+                }
+                setField(decodeCase.field, message);
+                message.decodeFrom(reader);
+            }
+            reader.popLimit(limit);
+        } else if (FieldUtil.isRepeated(decodeCase.field))
+        {
+            initializeArray(number).add(reader.read(decodeCase.readFunction));
+        } else
+        {
+            setField(decodeCase.field, reader.read(decodeCase.readFunction));
+        }
+    }
+
+    /**
+     * Models the generated decodeMapEntry function, which decodes a map entry into the Dictionary of
+     * its field without creating an entry object
+     */
+    void decodeMapEntry(int position, ModelReader reader)
+    {
+        counter.dispatches(2);
+        DescriptorProto entry = type.mapEntries.get(position);
+        FieldDescriptorProto keyField = FieldUtil.getMapEntryField(entry, FieldUtil.MAP_KEY);
+        FieldDescriptorProto valueField = FieldUtil.getMapEntryField(entry, FieldUtil.MAP_VALUE);
+        int keyTag = FieldUtil.makeTag(FieldUtil.MAP_KEY, FieldUtil.getWireType(keyField));
+        int valueTag = FieldUtil.makeTag(FieldUtil.MAP_VALUE, FieldUtil.getWireType(valueField));
+
+        Object key = null;
+        Object value = null;
+        while (reader.pos < reader.limit)
+        {
+            int tag = reader.readVarint();
+            if (tag == keyTag)
+            {
+                key = reader.read(FieldUtil.getReadFunction(keyField, schema.isNativeNumbers()));
+            } else if (tag == valueTag && FieldUtil.isMessage(valueField))
+            {
+                int limit = reader.pushLimit(reader.readVarint());
+                if (value == null)
+                {
+                    value = schema.newMessage(valueField.getTypeName(), counter);
+                }
+                ((ModelMessage) value).decodeFrom(reader);
+                reader.popLimit(limit);
+            } else if (tag == valueTag)
+            {
+                value = reader.read(FieldUtil.getReadFunction(valueField, schema.isNativeNumbers()));
+            } else
+            {
+                reader.skipField(tag);
+            }
+        }
+        if (value == null && FieldUtil.isMessage(valueField))
+        {
+            value = schema.newMessage(valueField.getTypeName(), counter);
+        } else if (value == null && valueField.getType() == FieldDescriptorProto.Type.TYPE_BYTES)
+        {
+            counter.array();
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> dictionary = (Map<Object, Object>) values.get(position);
+        if (dictionary == null)
+        {
+            counter.object();
+            dictionary = new HashMap<>();
+            values.put(position, dictionary);
+        }
+        // put
+        counter.dispatch();
+        dictionary.put(key, value);
+    }
+
+    /**
+     * Models the generated addUnknownField function and ProtoUtils.appendRange
+     */
+    void addUnknownField(ModelByteArray buf, int start, int end)
+    {
+        counter.dispatches(2);
+        ModelByteArray bytes = buf.slice(start, end);
+        unknownFields = unknownFields == null ? bytes : unknownFields.addAll(bytes);
+    }
+
+    /**
+     * Models the assignment of a singular field. Oneof members share one member in the generated class,
+     * so setting one removes the others.
+     */
+    private void setField(FieldDescriptorProto field, Object value)
+    {
+        if (field.hasOneofIndex())
+        {
+            for (FieldDescriptorProto other : type.fields.values())
+            {
+                if (other != field && other.hasOneofIndex() && other.getOneofIndex() == field.getOneofIndex())
+                {
+                    values.remove(other.getNumber());
+                }
+            }
+        }
+        values.put(field.getNumber(), value);
+    }
+
+    /**
+     * Models "if(self.x == null) { self.x = []; }"
+     */
+    private ModelArray initializeArray(int number)
+    {
+        ModelArray array = (ModelArray) values.get(number);
+        if (array == null)
+        {
+            array = ModelArray.newArray(counter, 0);
+            values.put(number, array);
+        }
+        return array;
+    }
+
+    /**
+     * Models ProtoUtils.appendValue
+     */
+    private ModelArray appendValue(ModelArray array, Object value)
+    {
+        counter.dispatch();
+        if (value instanceof ModelArray)
+        {
+            return array == null ? (ModelArray) value : array.addAll((ModelArray) value);
+        } else if (array == null)
+        {
+            return ModelArray.of(counter, value);
+        }
+        return array.add(value);
+    }
+
+    /**
+     * Models the reuse of a singular message field: the value if it is set (merge), otherwise the
+     * cleared spare, or null if a new instance has to be created
+     */
+    private ModelMessage reuseMessage(int number)
+    {
+        ModelMessage message = (ModelMessage) values.get(number);
+        if (message == null)
+        {
+            message = (ModelMessage) spares.get(number);
+            if (message != null)
+            {
+                message.clear();
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Models ProtoUtils.reuseMessage
+     */
+    private ModelMessage reuseMessage(int number, int index)
+    {
+        counter.dispatch();
+        ModelArray spare = (ModelArray) spares.get(number);
+        if (spare == null)
+        {
+            return null;
+        }
+        counter.dispatch();
+        if (index >= spare.size())
+        {
+            return null;
+        }
+        ModelMessage message = (ModelMessage) spare.get(index);
+        message.clear();
+        return message;
+    }
+
+    /**
+     * Models ProtoUtils.reuseArray
+     */
+    private ModelArray reuseArray(ModelArray array, ModelArray spare, int count)
+    {
+        counter.dispatch();
+        if (array == null && spare != null)
+        {
+            counter.dispatch();
+            if (spare.size() == count)
+            {
+                return spare;
+            }
+        }
+        return growArray(array, count);
+    }
+
+    /**
+     * Models ProtoUtils.growArray
+     */
+    private ModelArray growArray(ModelArray array, int count)
+    {
+        counter.dispatch();
+        if (array == null)
+        {
+            return ModelArray.newArray(counter, count);
+        }
+        return array.addAll(ModelArray.newArray(counter, count));
+    }
+}
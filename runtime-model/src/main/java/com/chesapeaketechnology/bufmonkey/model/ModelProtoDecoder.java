@@ -0,0 +1,363 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import java.util.Map;
+
+/**
+ * Model of the interpreted BufMonkey.ProtoDecoder (ProtoDecoder.mc) and the ProtoUtils functions it
+ * calls. The model follows the Monkey C code line by line, including how it reads headers and values,
+ * so that the counted work matches what the device does.
+ *
+ * @since 0.2.0
+ */
+final class ModelProtoDecoder
+{
+    private final CostCounter counter;
+
+    private final Map<Integer, Integer> memberDict;
+
+    private int currentIndex;
+
+    private int lastReadLength;
+
+    private boolean keepUnknown;
+
+    private boolean compat;
+
+    ModelProtoDecoder(CostCounter counter, Map<Integer, Integer> dict)
+    {
+        // initialize and reset
+        counter.object();
+        counter.dispatches(2);
+        this.counter = counter;
+        memberDict = dict;
+    }
+
+    ModelProtoDecoder keepUnknownFields()
+    {
+        counter.dispatch();
+        keepUnknown = true;
+        return this;
+    }
+
+    ModelProtoDecoder compatNumbers()
+    {
+        counter.dispatch();
+        compat = true;
+        return this;
+    }
+
+    void decodeRange(ModelByteArray bytes, int start, int end, ModelMessage message)
+    {
+        // decodeRange and reset
+        counter.dispatches(2);
+        currentIndex = start;
+        while (currentIndex < end)
+        {
+            int fieldStart = currentIndex;
+            int tag = parseTag(bytes);
+            int fieldNum = tag >>> 3;
+            // memberDict[fieldNum]
+            counter.dispatch();
+            Integer fieldType = memberDict.get(fieldNum);
+
+            if (fieldType == null)
+            {
+                skipValue(tag & 7, bytes, end);
+                if (keepUnknown && currentIndex < end)
+                {
+                    message.addUnknownField(bytes, fieldStart, currentIndex + 1);
+                }
+            } else
+            {
+                Object fieldVal = getDecodedValue(tag & 7, fieldType, bytes);
+                if (fieldVal != null && (fieldType & ModelTypes.FLAG_MAP) != 0)
+                {
+                    message.decodeMapEntry(fieldNum, (ModelReader) fieldVal);
+                } else if (fieldVal != null)
+                {
+                    if ((fieldType & ModelTypes.TYPE_MASK) == ModelTypes.TYPE_MESSAGE)
+                    {
+                        ModelMessage embedded = message.createMessage(fieldNum);
+                        embedded.decodeFrom((ModelReader) fieldVal);
+                        fieldVal = embedded;
+                    }
+                    message.setValue(fieldNum, fieldVal);
+                } else
+                {
+                    // System.println("Val was null! ...")
+                    counter.dispatch();
+                }
+            }
+            currentIndex++;
+        }
+    }
+
+    private int parseTag(ModelByteArray bytes)
+    {
+        counter.dispatch();
+        int b = bytes.get(currentIndex);
+        if (b < 0x80)
+        {
+            return b;
+        }
+
+        int tag = b & 0x7F;
+        int shift = 7;
+        do
+        {
+            currentIndex++;
+            b = bytes.get(currentIndex);
+            tag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return tag;
+    }
+
+    private void skipValue(int wireType, ModelByteArray bytes, int end)
+    {
+        counter.dispatches(2);
+        switch (wireType)
+        {
+            case 0:
+                do
+                {
+                    currentIndex++;
+                } while ((bytes.get(currentIndex) & 0x80) != 0);
+                break;
+            case 1:
+                currentIndex += 8;
+                break;
+            case 2:
+                lastReadLength = 0;
+                int length = parseUnsignedVarInt(bytes, currentIndex);
+                currentIndex += lastReadLength + length;
+                break;
+            case 5:
+                currentIndex += 4;
+                break;
+            default:
+                counter.dispatch();
+                currentIndex = end;
+                break;
+        }
+    }
+
+    private Object getDecodedValue(int wireType, int fieldType, ModelByteArray bytes)
+    {
+        counter.dispatches(2);
+        lastReadLength = 0;
+        Object fieldVal = null;
+        switch (wireType)
+        {
+            case 0:
+                fieldVal = parseVarint(fieldType, bytes, currentIndex);
+                break;
+            case 1:
+                fieldVal = parse64Bit(fieldType, bytes, currentIndex);
+                break;
+            case 2:
+                fieldVal = parseLengthDelimited(fieldType, bytes, currentIndex);
+                break;
+            case 5:
+                fieldVal = parse32Bit(fieldType, bytes, currentIndex);
+                break;
+            default:
+                break;
+        }
+
+        currentIndex += lastReadLength;
+        return fieldVal;
+    }
+
+    private Object parseVarint(int type, ModelByteArray buf, int idx)
+    {
+        counter.dispatches(2);
+        switch (type & ModelTypes.TYPE_MASK)
+        {
+            case ModelTypes.TYPE_SINT32:
+                counter.dispatch();
+                int raw = parseUnsignedVarInt(buf, idx);
+                return (((raw << 31) >> 31) ^ raw) >> 1 ^ (raw & (1 << 31));
+            case ModelTypes.TYPE_INT32:
+            case ModelTypes.TYPE_UINT32:
+            case ModelTypes.TYPE_ENUM:
+                return parseUnsignedVarInt(buf, idx);
+            case ModelTypes.TYPE_INT64:
+            case ModelTypes.TYPE_UINT64:
+                return parseUnsignedVarLong(buf, idx);
+            case ModelTypes.TYPE_SINT64:
+                counter.dispatch();
+                long rawLong = parseUnsignedVarLong(buf, idx);
+                // <<, >>, ^, >>, the 1l << 63 literal, & and ^ on Longs
+                counter.objects(7);
+                return (((rawLong << 63) >> 63) ^ rawLong) >> 1 ^ (rawLong & (1L << 63));
+            case ModelTypes.TYPE_BOOL:
+                return parseUnsignedVarInt(buf, idx) == 1;
+            default:
+                counter.dispatch();
+                return null;
+        }
+    }
+
+    private Object parseLengthDelimited(int type, ModelByteArray buf, int idx)
+    {
+        counter.dispatch();
+        if ((type & ModelTypes.FLAG_REPEATED) != 0)
+        {
+            counter.dispatch();
+            if (ModelTypes.getWireType(type & ModelTypes.TYPE_MASK) != 2)
+            {
+                return parseRepeatedElements(type, buf, idx);
+            }
+        }
+
+        counter.dispatch();
+        switch (type & ModelTypes.TYPE_MASK)
+        {
+            case ModelTypes.TYPE_STRING:
+                counter.dispatch();
+                return parseLengthDelimitedVal(buf, idx).convertToString();
+            case ModelTypes.TYPE_BYTES:
+                return parseLengthDelimitedVal(buf, idx);
+            case ModelTypes.TYPE_MESSAGE:
+                return parseEmbedded(buf, idx);
+            default:
+                counter.dispatch();
+                return null;
+        }
+    }
+
+    private Object parse32Bit(int type, ModelByteArray buf, int idx)
+    {
+        counter.dispatches(2);
+        lastReadLength += 4;
+        idx++;
+        switch (type & ModelTypes.TYPE_MASK)
+        {
+            case ModelTypes.TYPE_FLOAT:
+                if (compat)
+                {
+                    counter.dispatch();
+                    return ModelReader.readFloatLECompat(counter, buf, idx);
+                }
+                return buf.decodeFloatLE(idx);
+            case ModelTypes.TYPE_FIXED32:
+                if (compat)
+                {
+                    return buf.readInt32LECompat(idx);
+                }
+                counter.dispatch();
+                return buf.decodeUint32LE(idx);
+            case ModelTypes.TYPE_SFIXED32:
+                if (compat)
+                {
+                    return buf.readInt32LECompat(idx);
+                }
+                counter.dispatch();
+                return buf.decodeInt32LE(idx);
+            default:
+                counter.dispatch();
+                return null;
+        }
+    }
+
+    private Object parse64Bit(int type, ModelByteArray buf, int idx)
+    {
+        counter.dispatches(2);
+        lastReadLength += 8;
+        idx++;
+        switch (type & ModelTypes.TYPE_MASK)
+        {
+            case ModelTypes.TYPE_DOUBLE:
+                counter.dispatch();
+                if (compat)
+                {
+                    return ModelReader.readDoubleLECompat(counter, buf, idx);
+                }
+                // two readUintLE calls and Math.pow
+                counter.dispatches(3);
+                long lower = buf.decodeUint32LE(idx) & 0xFFFFFFFFL;
+                long higher = buf.decodeUint32LE(idx + 4) & 0xFFFFFFFFL;
+                counter.objects(ModelReader.READ_DOUBLE_TEMPORARIES);
+                return Double.longBitsToDouble((higher << 32) | lower);
+            case ModelTypes.TYPE_FIXED64:
+            case ModelTypes.TYPE_SFIXED64:
+                counter.dispatch();
+                if (compat)
+                {
+                    return ModelReader.readLongLECompat(counter, buf, idx);
+                }
+                // two readUintLE calls, then toLong, &, toLong, << and |
+                counter.dispatches(2);
+                long low = buf.decodeUint32LE(idx) & 0xFFFFFFFFL;
+                long high = buf.decodeUint32LE(idx + 4);
+                counter.objects(5);
+                return (high << 32) | low;
+            default:
+                counter.dispatch();
+                return null;
+        }
+    }
+
+    private int parseUnsignedVarInt(ModelByteArray buf, int idx)
+    {
+        counter.dispatch();
+        int shifter = 0;
+        int val = 0;
+        do
+        {
+            idx++;
+            val |= (buf.get(idx) & 0x7F) << shifter;
+            shifter += 7;
+            lastReadLength++;
+        } while ((buf.get(idx) & 0x80) != 0);
+        return val;
+    }
+
+    private long parseUnsignedVarLong(ModelByteArray buf, int idx)
+    {
+        counter.dispatch();
+        // the 0l literal, then |=, toLong and & per byte
+        counter.object();
+        int shifter = 0;
+        long val = 0;
+        do
+        {
+            idx++;
+            counter.objects(3);
+            val |= (buf.get(idx) & 0x7F) << shifter;
+            shifter += 7;
+            lastReadLength++;
+        } while ((buf.get(idx) & 0x80) != 0);
+        return val;
+    }
+
+    private ModelByteArray parseLengthDelimitedVal(ModelByteArray buf, int idx)
+    {
+        counter.dispatch();
+        int length = parseUnsignedVarInt(buf, idx);
+        idx += lastReadLength + 1;
+        lastReadLength += length;
+        return buf.slice(idx, idx + length);
+    }
+
+    private ModelReader parseEmbedded(ModelByteArray buf, int idx)
+    {
+        counter.dispatch();
+        int length = parseUnsignedVarInt(buf, idx);
+        idx += lastReadLength + 1;
+        lastReadLength += length;
+        return new ModelReader(counter, buf, idx, idx + length);
+    }
+
+    private ModelArray parseRepeatedElements(int type, ModelByteArray buf, int idx)
+    {
+        counter.dispatch();
+        int length = parseUnsignedVarInt(buf, idx);
+        idx += lastReadLength + 1;
+        lastReadLength += length;
+        ModelReader reader = new ModelReader(counter, buf, idx, idx + length);
+        reader.compatNumbers = compat;
+        return reader.readPacked(type);
+    }
+}
@@ -0,0 +1,419 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+/**
+ * Model of BufMonkey.ProtoReader (ProtoReader.mc). Every function counts one dispatch and the Long
+ * and Double temporaries that its Monkey C expressions create, since Monkey C allocates 64 bit values
+ * on the heap while 32 bit Numbers and Floats are stored inline.
+ *
+ * @since 0.2.0
+ */
+final class ModelReader
+{
+    /**
+     * Long and Double temporaries created by ProtoUtils.readDoubleLE
+     */
+    static final int READ_DOUBLE_TEMPORARIES = 16;
+
+    /**
+     * Double temporaries created by ProtoUtils.readFloatLECompat
+     */
+    static final int READ_FLOAT_TEMPORARIES = 4;
+
+    private final CostCounter counter;
+
+    ModelByteArray buf;
+
+    int pos;
+
+    int limit;
+
+    /**
+     * Whether readValue uses the Compat read functions
+     */
+    boolean compatNumbers;
+
+    ModelReader(CostCounter counter, ModelByteArray bytes, int start, int end)
+    {
+        // initialize and reset
+        counter.object();
+        counter.dispatches(2);
+        this.counter = counter;
+        buf = bytes;
+        pos = start;
+        limit = end;
+    }
+
+    int pushLimit(int length)
+    {
+        counter.dispatch();
+        int oldLimit = limit;
+        limit = pos + length;
+        return oldLimit;
+    }
+
+    void popLimit(int oldLimit)
+    {
+        counter.dispatch();
+        limit = oldLimit;
+    }
+
+    int readVarint()
+    {
+        counter.dispatch();
+        int b = buf.get(pos++);
+        if (b < 0x80)
+        {
+            return b;
+        }
+
+        int val = b & 0x7F;
+        int shift = 7;
+        do
+        {
+            b = buf.get(pos++);
+            if (shift < 32)
+            {
+                val |= (b & 0x7F) << shift;
+            }
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return val;
+    }
+
+    long readVarLong()
+    {
+        counter.dispatch();
+        // the 0l literal, then toLong, << and |= per byte
+        counter.object();
+        long val = 0;
+        int shift = 0;
+        int b;
+        do
+        {
+            b = buf.get(pos++);
+            counter.objects(3);
+            val |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return val;
+    }
+
+    int readSint32()
+    {
+        counter.dispatch();
+        int raw = readVarint();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    long readSint64()
+    {
+        counter.dispatch();
+        long raw = readVarLong();
+        // >>, &, &, unary minus and ^ on Longs
+        counter.objects(5);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    boolean readBool()
+    {
+        counter.dispatch();
+        return readVarint() != 0;
+    }
+
+    long readFixed32()
+    {
+        // readFixed32 and ProtoUtils.readUintLE
+        counter.dispatches(2);
+        int val = buf.decodeUint32LE(pos);
+        pos += 4;
+        return val;
+    }
+
+    int readSfixed32()
+    {
+        counter.dispatches(2);
+        int val = buf.decodeInt32LE(pos);
+        pos += 4;
+        return val;
+    }
+
+    long readFixed64()
+    {
+        // readFixed64 and two ProtoUtils.readUintLE calls
+        counter.dispatches(3);
+        long lower = buf.decodeUint32LE(pos) & 0xFFFFFFFFL;
+        long higher = buf.decodeUint32LE(pos + 4);
+        // toLong, &, toLong, << and |
+        counter.objects(5);
+        pos += 8;
+        return (higher << 32) | lower;
+    }
+
+    float readFloat()
+    {
+        counter.dispatch();
+        float val = buf.decodeFloatLE(pos);
+        pos += 4;
+        return val;
+    }
+
+    double readDouble()
+    {
+        // readDouble, readDoubleLE, two readUintLE calls and Math.pow
+        counter.dispatches(5);
+        long lower = buf.decodeUint32LE(pos) & 0xFFFFFFFFL;
+        long higher = buf.decodeUint32LE(pos + 4) & 0xFFFFFFFFL;
+        counter.objects(READ_DOUBLE_TEMPORARIES);
+        pos += 8;
+        return Double.longBitsToDouble((higher << 32) | lower);
+    }
+
+    long readFixed32Compat()
+    {
+        counter.dispatch();
+        int val = buf.readInt32LECompat(pos);
+        pos += 4;
+        return val;
+    }
+
+    int readSfixed32Compat()
+    {
+        counter.dispatch();
+        int val = buf.readInt32LECompat(pos);
+        pos += 4;
+        return val;
+    }
+
+    long readFixed64Compat()
+    {
+        // readFixed64Compat and readLongLECompat
+        counter.dispatches(2);
+        long val = readLongLECompat(counter, buf, pos);
+        pos += 8;
+        return val;
+    }
+
+    float readFloatCompat()
+    {
+        counter.dispatch();
+        float val = readFloatLECompat(counter, buf, pos);
+        pos += 4;
+        return val;
+    }
+
+    double readDoubleCompat()
+    {
+        counter.dispatch();
+        double val = readDoubleLECompat(counter, buf, pos);
+        pos += 8;
+        return val;
+    }
+
+    /**
+     * Models ProtoUtils.readLongLECompat, without the function call itself
+     */
+    static long readLongLECompat(CostCounter counter, ModelByteArray buf, int pos)
+    {
+        long lower = buf.readInt32LECompat(pos) & 0xFFFFFFFFL;
+        long higher = buf.readInt32LECompat(pos + 4);
+        // toLong, &, toLong, << and |
+        counter.objects(5);
+        return (higher << 32) | lower;
+    }
+
+    /**
+     * Models ProtoUtils.readFloatLECompat, without the function call itself
+     */
+    static float readFloatLECompat(CostCounter counter, ModelByteArray buf, int pos)
+    {
+        int bits = buf.readInt32LECompat(pos);
+        // Math.pow and toFloat
+        counter.dispatches(2);
+        counter.objects(READ_FLOAT_TEMPORARIES);
+        return Float.intBitsToFloat(bits);
+    }
+
+    /**
+     * Models ProtoUtils.readDoubleLECompat, without the function call itself
+     */
+    static double readDoubleLECompat(CostCounter counter, ModelByteArray buf, int pos)
+    {
+        long lower = buf.readInt32LECompat(pos) & 0xFFFFFFFFL;
+        long higher = buf.readInt32LECompat(pos + 4) & 0xFFFFFFFFL;
+        // Math.pow
+        counter.dispatch();
+        counter.objects(READ_DOUBLE_TEMPORARIES);
+        return Double.longBitsToDouble((higher << 32) | lower);
+    }
+
+    String readString()
+    {
+        counter.dispatch();
+        return readBytes().convertToString();
+    }
+
+    ModelByteArray readBytes()
+    {
+        counter.dispatch();
+        int length = readVarint();
+        int start = pos;
+        pos += length;
+        return buf.slice(start, pos);
+    }
+
+    /**
+     * Models readValue(type) which switches on the type code
+     *
+     * @param type int DESCRIPTOR type code
+     * @return the value
+     */
+    Object readValue(int type)
+    {
+        counter.dispatches(2);
+        switch (type & ModelTypes.TYPE_MASK)
+        {
+            case ModelTypes.TYPE_DOUBLE:
+                return compatNumbers ? readDoubleCompat() : readDouble();
+            case ModelTypes.TYPE_FLOAT:
+                return compatNumbers ? readFloatCompat() : readFloat();
+            case ModelTypes.TYPE_INT64:
+            case ModelTypes.TYPE_UINT64:
+                return readVarLong();
+            case ModelTypes.TYPE_INT32:
+            case ModelTypes.TYPE_UINT32:
+            case ModelTypes.TYPE_ENUM:
+                return readVarint();
+            case ModelTypes.TYPE_FIXED64:
+            case ModelTypes.TYPE_SFIXED64:
+                return compatNumbers ? readFixed64Compat() : readFixed64();
+            case ModelTypes.TYPE_FIXED32:
+                return compatNumbers ? readFixed32Compat() : readFixed32();
+            case ModelTypes.TYPE_SFIXED32:
+                return compatNumbers ? readSfixed32Compat() : readSfixed32();
+            case ModelTypes.TYPE_BOOL:
+                return readBool();
+            case ModelTypes.TYPE_STRING:
+                return readString();
+            case ModelTypes.TYPE_BYTES:
+            case ModelTypes.TYPE_MESSAGE:
+                return readBytes();
+            case ModelTypes.TYPE_SINT32:
+                return readSint32();
+            case ModelTypes.TYPE_SINT64:
+                return readSint64();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Models the read function the generator emits for a field, see FieldUtil.getReadFunction
+     *
+     * @param readFunction String ProtoReader function name
+     * @return the value
+     */
+    Object read(String readFunction)
+    {
+        switch (readFunction)
+        {
+            case "readDouble":
+                return readDouble();
+            case "readFloat":
+                return readFloat();
+            case "readVarLong":
+                return readVarLong();
+            case "readVarint":
+                return readVarint();
+            case "readSint32":
+                return readSint32();
+            case "readSint64":
+                return readSint64();
+            case "readBool":
+                return readBool();
+            case "readFixed32":
+                return readFixed32();
+            case "readSfixed32":
+                return readSfixed32();
+            case "readFixed64":
+                return readFixed64();
+            case "readDoubleCompat":
+                return readDoubleCompat();
+            case "readFloatCompat":
+                return readFloatCompat();
+            case "readFixed32Compat":
+                return readFixed32Compat();
+            case "readSfixed32Compat":
+                return readSfixed32Compat();
+            case "readFixed64Compat":
+                return readFixed64Compat();
+            case "readString":
+                return readString();
+            case "readBytes":
+                return readBytes();
+            default:
+                throw new IllegalArgumentException("Unknown read function: " + readFunction);
+        }
+    }
+
+    int countPacked(int wireType)
+    {
+        counter.dispatch();
+        if (wireType == 1)
+        {
+            return (limit - pos) / 8;
+        } else if (wireType == 5)
+        {
+            return (limit - pos) / 4;
+        }
+
+        int count = 0;
+        for (int i = pos; i < limit; i++)
+        {
+            if ((buf.get(i) & 0x80) == 0)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    ModelArray readPacked(int type)
+    {
+        // readPacked and ProtoUtils.getWireTypeForFieldType
+        counter.dispatches(2);
+        ModelArray values = ModelArray.newArray(counter, countPacked(ModelTypes.getWireType(type & ModelTypes.TYPE_MASK)));
+        for (int i = 0; pos < limit; i++)
+        {
+            values.set(i, readValue(type));
+        }
+        return values;
+    }
+
+    void skipField(int tag)
+    {
+        counter.dispatches(2);
+        switch (tag & 7)
+        {
+            case 0:
+                while ((buf.get(pos) & 0x80) != 0)
+                {
+                    pos++;
+                }
+                pos++;
+                break;
+            case 1:
+                pos += 8;
+                break;
+            case 2:
+                int length = readVarint();
+                pos += length;
+                break;
+            case 5:
+                pos += 4;
+                break;
+            default:
+                pos = limit;
+                break;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import com.chesapeaketechnology.bufmonkey.generator.GeneratorOptions;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of modeled message classes generated from a list of proto files, and the entry point for
+ * decoding payloads with the modeled runtime
+ *
+ * @since 0.2.0
+ */
+public final class ModelSchema
+{
+    private final Map<String, ModelType> types = new HashMap<>();
+
+    private final GeneratorOptions options;
+
+    private ModelSchema(GeneratorOptions options)
+    {
+        this.options = options;
+    }
+
+    /**
+     * Creates the model of the classes generated for the provided files
+     *
+     * @param files   List of {@link FileDescriptorProto}
+     * @param options {@link GeneratorOptions} the classes are generated with
+     * @return {@link ModelSchema}
+     */
+    public static ModelSchema fromFiles(List<FileDescriptorProto> files, GeneratorOptions options)
+    {
+        ModelSchema schema = new ModelSchema(options);
+        for (FileDescriptorProto file : files)
+        {
+            for (DescriptorProto message : file.getMessageTypeList())
+            {
+                schema.addType(file.getPackage(), message);
+            }
+        }
+        return schema;
+    }
+
+    private void addType(String packageName, DescriptorProto message)
+    {
+        String name = packageName.isEmpty() ? message.getName() : packageName + "." + message.getName();
+        types.put(name, new ModelType(name, message, options.getProjectedFields(packageName, message), options.isNativeNumbers()));
+        for (DescriptorProto nested : message.getNestedTypeList())
+        {
+            addType(name, nested);
+        }
+    }
+
+    boolean isSpecializedDecode()
+    {
+        return options.isSpecializedDecode();
+    }
+
+    boolean isLazyDecode()
+    {
+        return options.isLazyDecode();
+    }
+
+    boolean isPreserveUnknownFields()
+    {
+        return options.isPreserveUnknownFields();
+    }
+
+    boolean isNativeNumbers()
+    {
+        return options.isNativeNumbers();
+    }
+
+    /**
+     * Models new T() for the message class with the provided name
+     *
+     * @param typeName String fully qualified message name, with or without leading "."
+     * @param counter  {@link CostCounter} to count the work with
+     * @return {@link ModelMessage}
+     */
+    ModelMessage newMessage(String typeName, CostCounter counter)
+    {
+        String name = typeName.startsWith(".") ? typeName.substring(1) : typeName;
+        ModelType type = types.get(name);
+        if (type == null)
+        {
+            throw new ModelException("Unknown message type: " + typeName);
+        }
+        return new ModelMessage(this, type, counter);
+    }
+
+    /**
+     * Models "new T().decode(payload)" (BufMonkeyType.decode) and counts the work it performs
+     *
+     * @param typeName String fully qualified message name
+     * @param payload  byte[] encoded message
+     * @param counter  {@link CostCounter} to count the work with
+     * @return the decoded {@link ModelMessage}
+     */
+    public ModelMessage decode(String typeName, byte[] payload, CostCounter counter)
+    {
+        ModelMessage message = newMessage(typeName, counter);
+        message.decode(payload);
+        return message;
+    }
+
+    /**
+     * Models decoding a batch of length prefixed messages into a single reused instance with
+     * BufMonkey.ProtoBatchDecoder (hasNext and next per message) and counts the work it performs
+     *
+     * @param typeName String fully qualified message name of every message of the batch
+     * @param payload  byte[] messages, each one prefixed with its length as a varint
+     * @param counter  {@link CostCounter} to count the work with
+     * @return the reused {@link ModelMessage} holding the last message of the batch
+     */
+    public ModelMessage decodeBatch(String typeName, byte[] payload, CostCounter counter)
+    {
+        ModelMessage message = newMessage(typeName, counter);
+        // ProtoBatchDecoder initialize and bytes.size()
+        counter.object();
+        counter.dispatches(2);
+        ModelReader reader = new ModelReader(counter, new ModelByteArray(counter, payload), 0, payload.length);
+        int end = payload.length;
+        while (reader.pos < end)
+        {
+            // hasNext and next
+            counter.dispatches(2);
+            int length = reader.readVarint();
+            int oldLimit = reader.pushLimit(length);
+            message.clear();
+            message.decodeFrom(reader);
+            reader.pos = reader.limit;
+            reader.popLimit(oldLimit);
+        }
+        return message;
+    }
+}
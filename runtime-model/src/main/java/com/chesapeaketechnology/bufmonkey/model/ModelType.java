@@ -0,0 +1,112 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import com.chesapeaketechnology.bufmonkey.generator.FieldUtil;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The class level parts of a generated message class: the DESCRIPTOR table, the lazy index slots and
+ * the cases of the switch statements in setValue, createMessage and decodeFrom. They are derived with the same
+ * FieldUtil functions the generator uses.
+ *
+ * @since 0.2.0
+ */
+final class ModelType
+{
+    /**
+     * A single case of the generated decodeFrom switch
+     */
+    static final class DecodeCase
+    {
+        final FieldDescriptorProto field;
+
+        /**
+         * Whether this is the packed case of a packable field
+         */
+        final boolean packed;
+
+        final String readFunction;
+
+        DecodeCase(FieldDescriptorProto field, boolean packed, boolean nativeNumbers)
+        {
+            this.field = field;
+            this.packed = packed;
+            this.readFunction = FieldUtil.getReadFunction(field, nativeNumbers);
+        }
+    }
+
+    final String name;
+
+    final DescriptorProto descriptor;
+
+    /**
+     * The generated DESCRIPTOR constant, field number to type code
+     */
+    final Map<Integer, Integer> descriptorTable;
+
+    final Map<Integer, FieldDescriptorProto> fields;
+
+    /**
+     * Cases of the generated decodeFrom switch by wire tag
+     */
+    final Map<Integer, DecodeCase> decodeCases;
+
+    /**
+     * Map entry messages of the map fields by field number, see FieldUtil.getMapEntries
+     */
+    final Map<Integer, DescriptorProto> mapEntries;
+
+    /**
+     * Slots of the index of a lazy message class by field number
+     */
+    final Map<Integer, Integer> lazySlots;
+
+    /**
+     * @param name          String fully qualified message name
+     * @param descriptor    {@link DescriptorProto} message
+     * @param fieldList     List of the fields code is generated for, see GeneratorOptions.getProjectedFields
+     * @param nativeNumbers boolean whether fixed width values are read natively, see GeneratorOptions.isNativeNumbers
+     */
+    ModelType(String name, DescriptorProto descriptor, List<FieldDescriptorProto> fieldList, boolean nativeNumbers)
+    {
+        this.name = name;
+        this.descriptor = descriptor;
+        this.mapEntries = Collections.unmodifiableMap(FieldUtil.getMapEntries(name, descriptor));
+
+        Map<Integer, Integer> table = new HashMap<>();
+        Map<Integer, FieldDescriptorProto> byNumber = new HashMap<>();
+        Map<Integer, DecodeCase> cases = new HashMap<>();
+        Map<Integer, Integer> slots = new HashMap<>();
+        int[] lazySlotList = FieldUtil.getLazySlots(fieldList);
+        for (int i = 0; i < lazySlotList.length; i++)
+        {
+            slots.put(fieldList.get(i).getNumber(), lazySlotList[i]);
+        }
+        for (FieldDescriptorProto field : fieldList)
+        {
+            table.put(field.getNumber(), FieldUtil.getTypeCode(field) | (mapEntries.containsKey(field.getNumber()) ? FieldUtil.FLAG_MAP : 0));
+            byNumber.put(field.getNumber(), field);
+
+            int wireType = FieldUtil.getWireType(field);
+            if (wireType < 0)
+            {
+                continue;
+            }
+            if (FieldUtil.isPackable(field))
+            {
+                cases.put(FieldUtil.makeTag(field.getNumber(), FieldUtil.WIRETYPE_LENGTH_DELIMITED), new DecodeCase(field, true, nativeNumbers));
+            }
+            cases.put(FieldUtil.makeTag(field.getNumber(), wireType), new DecodeCase(field, false, nativeNumbers));
+        }
+
+        descriptorTable = Collections.unmodifiableMap(table);
+        fields = Collections.unmodifiableMap(byNumber);
+        decodeCases = Collections.unmodifiableMap(cases);
+        lazySlots = Collections.unmodifiableMap(slots);
+    }
+}
@@ -0,0 +1,53 @@
+package com.chesapeaketechnology.bufmonkey.model;
+
+import com.chesapeaketechnology.bufmonkey.generator.FieldUtil;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+
+/**
+ * DESCRIPTOR type codes of the runtime (BufMonkeyType.mc), which are the protobuf type numbers with
+ * FLAG_REPEATED added for repeated fields and FLAG_MAP for map fields
+ *
+ * @since 0.2.0
+ */
+final class ModelTypes
+{
+    static final int TYPE_DOUBLE = 1;
+    static final int TYPE_FLOAT = 2;
+    static final int TYPE_INT64 = 3;
+    static final int TYPE_UINT64 = 4;
+    static final int TYPE_INT32 = 5;
+    static final int TYPE_FIXED64 = 6;
+    static final int TYPE_FIXED32 = 7;
+    static final int TYPE_BOOL = 8;
+    static final int TYPE_STRING = 9;
+    static final int TYPE_MESSAGE = 11;
+    static final int TYPE_BYTES = 12;
+    static final int TYPE_UINT32 = 13;
+    static final int TYPE_ENUM = 14;
+    static final int TYPE_SFIXED32 = 15;
+    static final int TYPE_SFIXED64 = 16;
+    static final int TYPE_SINT32 = 17;
+    static final int TYPE_SINT64 = 18;
+
+    static final int TYPE_MASK = 31;
+
+    static final int FLAG_REPEATED = FieldUtil.FLAG_REPEATED;
+
+    static final int FLAG_MAP = FieldUtil.FLAG_MAP;
+
+    private ModelTypes()
+    {
+    }
+
+    /**
+     * Models ProtoUtils.getWireTypeForFieldType
+     *
+     * @param fieldType int type code without flags
+     * @return wire type, or -1 for unknown types
+     */
+    static int getWireType(int fieldType)
+    {
+        FieldDescriptorProto.Type type = FieldDescriptorProto.Type.forNumber(fieldType);
+        return type == null ? -1 : FieldUtil.getWireType(FieldDescriptorProto.newBuilder().setType(type).build());
+    }
+}